@@ -54,6 +54,26 @@ public class Box {
         }
     }
 
+    /**
+     * Calls the given predicate for points in this box, in the same order as {@link #forEachPoint(XYZFunction)},
+     * until it returns false.
+     *
+     * @param predicate the predicate to test
+     * @return true if the predicate returned true for all points
+     */
+    public boolean allMatch(XYZPredicate predicate) {
+        for (int x = x1; x <= x2; x++) {
+            for (int y = y1; y <= y2; y++) {
+                for (int z = z1; z <= z2; z++) {
+                    if (!predicate.test(x, y, z)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     public Box add(Box o) {
         return new Box(x1 + o.x1, y1 + o.y1, z1 + o.z1,
                 x2 + o.x2, y2 + o.y2, z2 + o.z2);
@@ -69,6 +89,12 @@ public class Box {
         void apply(int x, int y, int z);
     }
 
+    @FunctionalInterface
+    public interface XYZPredicate {
+
+        boolean test(int x, int y, int z);
+    }
+
     public static class Mutable extends Box{
 
         public Mutable(int x1, int y1, int z1, int x2, int y2, int z2) {
@@ -0,0 +1,429 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table implementation for objects in a 3-dimensional cartesian coordinate system, that allows reads from any
+ * thread while it's being modified.
+ * <p>
+ * Coordinates are packed into a long key, and stored in a primitive array using open addressing with linear probing.
+ * Removed entries are replaced with tombstones instead of moving other entries, so that concurrent lookups never skip
+ * over an entry that is in the map, and iteration isn't affected by removing elements. Tombstones are cleaned up when
+ * the map is rehashed.
+ * <p>
+ * Only one thread may modify the map at a time. {@link #get(int, int, int)}, {@link #contains(int, int, int)},
+ * {@link #getSize()} and iteration are safe to use from other threads without locking, and will see either the state
+ * before or after a concurrent modification.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ConcurrentXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    private static final Logger LOGGER = LogManager.getLogger("cubicchunks");
+
+    private static final boolean CHECK_THREADED_WRITES = "true".equalsIgnoreCase(System.getProperty("cubicchunks.debug.checkThreadedXYZMapWrites"));
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long TOMBSTONE = Long.MIN_VALUE + 1;
+    /**
+     * Key used for coordinates that would pack to {@link #EMPTY} or {@link #TOMBSTONE}. Keys are only used to find
+     * candidate entries, the coordinates of the value are always checked, so sharing a key is fine.
+     */
+    private static final long ALIASED_KEY = Long.MIN_VALUE + 2;
+
+    /**
+     * The current table. Replaced with a new one when rehashing, so that readers always see a consistent table.
+     */
+    @Nonnull private volatile Table<T> table;
+
+    /**
+     * the current number of elements in this map
+     */
+    private volatile int size = 0;
+
+    /**
+     * the number of slots that are either used or contain a tombstone, only accessed by the writing thread
+     */
+    private int usedSlots = 0;
+
+    /**
+     * the maximum permissible load of the backing array, including tombstones
+     */
+    private final float loadFactor;
+
+    private final Thread debugStartThreadRef = Thread.currentThread();
+
+    /**
+     * Creates a new ConcurrentXYZMap with the given load factor and initial capacity. The map will automatically grow
+     * if the specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public ConcurrentXYZMap(float loadFactor, int capacity) {
+        if (loadFactor >= 1.0 || loadFactor <= 0) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1, but was " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        this.table = new Table<>(tableSizeFor(capacity));
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Packs the given coordinates into a long key. Coordinates between -2^20 and 2^20 on x and z axis, and between
+     * -2^21 and 2^21 on the y axis get unique keys, others may share a key with different coordinates.
+     */
+    private static long key(int x, int y, int z) {
+        long key = ((long) x & 0x1FFFFF) << 43 | ((long) z & 0x1FFFFF) << 22 | (long) y & 0x3FFFFF;
+        return key == EMPTY || key == TOMBSTONE ? ALIASED_KEY : key;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return ((int) h ^ (int) (h >>> 16)) & mask;
+    }
+
+    private static boolean matches(@Nullable XYZAddressable value, int x, int y, int z) {
+        return value != null && value.getX() == x && value.getY() == y && value.getZ() == z;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = 16;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Removes all elements from the map.
+     */
+    public void clear() {
+        checkThreadedWrite();
+        this.table = new Table<>(this.table.capacity());
+        this.usedSlots = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map
+     * previously contained a mapping for these coordinates, the old value is
+     * replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates
+     *         or null if no such value exists
+     */
+    @Nullable
+    public T put(T value) {
+        checkThreadedWrite();
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        long key = key(x, y, z);
+        Table<T> t = this.table;
+        int mask = t.mask;
+
+        int freeSlot = -1;
+        int slot = slot(key, mask);
+        long k;
+        while ((k = t.keys.get(slot)) != EMPTY) {
+            if (k == TOMBSTONE) {
+                if (freeSlot < 0) {
+                    freeSlot = slot;
+                }
+            } else if (k == key) {
+                T old = t.values.get(slot);
+                if (matches(old, x, y, z)) {
+                    t.values.lazySet(slot, value);
+                    return old;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (freeSlot < 0) {
+            freeSlot = slot;
+            usedSlots++;
+        }
+        // value first, so that a reader that sees the key also sees the value
+        t.values.lazySet(freeSlot, value);
+        t.keys.lazySet(freeSlot, key);
+        this.size++;
+
+        if (usedSlots > t.capacity() * loadFactor) {
+            rehash();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such entry exists
+     */
+    @Nullable
+    public T remove(int x, int y, int z) {
+        checkThreadedWrite();
+        Table<T> t = this.table;
+        int slot = t.find(key(x, y, z), x, y, z);
+        if (slot < 0) {
+            return null;
+        }
+        T old = t.values.get(slot);
+        t.keys.lazySet(slot, TOMBSTONE);
+        t.values.lazySet(slot, null);
+        this.size--;
+        return old;
+    }
+
+    /**
+     * Removes and returns the given value from this map. More specifically,
+     * removes the entry whose xyz-coordinates equal the given value's
+     * coordinates.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the given value's coordinates or null
+     *         if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no
+     * such value exists.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such value exists
+     */
+    @Nullable
+    public T get(int x, int y, int z) {
+        Table<T> t = this.table;
+        int slot = t.find(key(x, y, z), x, y, z);
+        if (slot < 0) {
+            return null;
+        }
+        T value = t.values.get(slot);
+        // could have been removed since it was found
+        return matches(value, x, y, z) ? value : null;
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given
+     * xyz-coordinates in this map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given
+     *         coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return get(x, y, z) != null;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map. More
+     * specifically, returns true if there exists an entry in this map whose
+     * xyz-coordinates equal the given value's coordinates.
+     *
+     * @param value the value
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Copies all elements into a new table, dropping tombstones. The capacity is doubled only if the elements alone
+     * would exceed half of the load factor, otherwise the table is only cleaned up.
+     */
+    private void rehash() {
+        Table<T> oldTable = this.table;
+        int newCapacity = oldTable.capacity();
+        while (size > newCapacity * loadFactor * 0.5f) {
+            newCapacity <<= 1;
+        }
+        Table<T> newTable = new Table<>(newCapacity);
+        int mask = newTable.mask;
+        for (int i = 0; i < oldTable.capacity(); i++) {
+            T value = oldTable.values.get(i);
+            if (value == null) {
+                continue;
+            }
+            long key = oldTable.keys.get(i);
+            int slot = slot(key, mask);
+            while (newTable.keys.get(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newTable.values.lazySet(slot, value);
+            newTable.keys.lazySet(slot, key);
+        }
+        this.usedSlots = size;
+        // volatile write publishes the filled table to readers
+        this.table = newTable;
+    }
+
+    private void checkThreadedWrite() {
+        if (CHECK_THREADED_WRITES) {
+            if (Thread.currentThread() != debugStartThreadRef) {
+                LOGGER.error("Invalid threaded write access", new RuntimeException("Detected XYZ map write access from unexpected thread!"));
+            }
+        }
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an iterator over the elements of this map. The iterator is weakly consistent: it never throws
+     * {@link java.util.ConcurrentModificationException}, and may or may not see elements added or removed after it
+     * was created. Removing elements, including with {@link Iterator#remove()}, doesn't change the order in which the
+     * remaining elements are visited.
+     *
+     * @return an iterator over the elements of this map
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Table<T> t = this.table;
+        return new Iterator<T>() {
+
+            int slot = -1;
+            // read ahead, so that elements removed concurrently are never returned by next() after hasNext()
+            @Nullable T nextValue = advance();
+            @Nullable T lastReturned;
+
+            @Nullable private T advance() {
+                while (++slot < t.capacity()) {
+                    T value = t.values.get(slot);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextValue != null;
+            }
+
+            @Override
+            public T next() {
+                T value = nextValue;
+                if (value == null) {
+                    throw new NoSuchElementException();
+                }
+                lastReturned = value;
+                nextValue = advance();
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentXYZMap.this.remove(lastReturned);
+                lastReturned = null;
+            }
+        };
+    }
+
+    private static final class Table<T extends XYZAddressable> {
+
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<T> values;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                keys.lazySet(i, EMPTY);
+            }
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        /**
+         * @return slot containing the value at the given coordinates, or -1 if not found
+         */
+        int find(long key, int x, int y, int z) {
+            int slot = slot(key, mask);
+            long k;
+            while ((k = keys.get(slot)) != EMPTY) {
+                if (k == key && matches(values.get(slot), x, y, z)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
@@ -145,6 +145,63 @@ public class CubePrimer {
         }
     }
 
+    /**
+     * Set all blocks in this primer to the given block state
+     *
+     * @param state the block state
+     */
+    public void fill(@Nonnull IBlockState state) {
+        if (!usesOwnStorage()) {
+            for (int i = 0; i < 4096; i++) {
+                setBlockState(i & 15, i >> 8, i >> 4 & 15, state);
+            }
+            return;
+        }
+        @SuppressWarnings("deprecation")
+        int value = Block.BLOCK_STATE_IDS.get(state);
+        Arrays.fill(this.data, (char) value);
+        if (value > 0xFFFF) {
+            if (extData == null) {
+                extData = new byte[4096];
+            }
+            Arrays.fill(extData, (byte) (value >>> 16));
+        } else if (extData != null) {
+            Arrays.fill(extData, (byte) 0);
+        }
+    }
+
+    // subclasses may override getBlockState and setBlockState to store blocks elsewhere, only trust the array for this class
+    private boolean usesOwnStorage() {
+        return this.data != null && getClass() == CubePrimer.class;
+    }
+
+    /**
+     * Returns the block state of all blocks in this primer if they are all the same. Always null for subclasses, as they
+     * may not store blocks in this primer.
+     *
+     * @return the block state at all positions, or null if not all blocks are the same or it's not known
+     */
+    @Nullable
+    public IBlockState getUniformBlockState() {
+        if (!usesOwnStorage()) {
+            return null;
+        }
+        char first = this.data[0];
+        for (char block : this.data) {
+            if (block != first) {
+                return null;
+            }
+        }
+        if (extData != null) {
+            for (byte ext : extData) {
+                if (ext != extData[0]) {
+                    return null;
+                }
+            }
+        }
+        return getBlockState(0, 0, 0);
+    }
+
     /**
      * Resets this primer to a state as if it were newly constructed.
      */
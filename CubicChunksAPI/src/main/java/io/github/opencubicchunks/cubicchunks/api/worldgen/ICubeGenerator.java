@@ -86,6 +86,17 @@ public interface ICubeGenerator {
         return this.generateCube(cubeX, cubeY, cubeZ);
     }
 
+    /**
+     * Whether {@link #generateCube(int, int, int, CubePrimer)} can be called from multiple threads at the same time.
+     * If this returns true and parallel cube generation is enabled, it may be called from worker threads.
+     * All the other methods are still only called from the server thread.
+     *
+     * @return true if {@link #generateCube(int, int, int, CubePrimer)} is thread-safe
+     */
+    default boolean supportsConcurrentCubeGeneration() {
+        return false;
+    }
+
     /**
      * Generate column-global information such as biome data
      *
@@ -140,6 +140,9 @@ dependencies {
     testCompile("org.mockito:mockito-core:2.1.0-RC.2")
     testCompile("org.spongepowered:launchwrappertestsuite:1.0-SNAPSHOT")
 
+    // benchmarks mock the world and columns that real cubes need
+    jmh("org.mockito:mockito-core:2.1.0-RC.2")
+
     coreShadow("org.spongepowered:mixin:0.8.1-SNAPSHOT") {
         isTransitive = false
     }
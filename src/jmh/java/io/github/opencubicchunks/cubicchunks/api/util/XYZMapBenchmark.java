@@ -0,0 +1,176 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Lookups and updates of the maps used to store loaded cubes, columns and watchers.
+ * <p>
+ * The maps are filled with a cube of positions of the given radius, similar to cubes loaded around a player. Lookups
+ * are done in random order, about half of them for positions that aren't in the map.
+ */
+@State(Scope.Thread)
+public class XYZMapBenchmark {
+
+    private static final int RADIUS = 16;
+    private static final int LOOKUPS = 1 << 12;
+
+    private XYZMap<Pos> xyzMap;
+    private ConcurrentXYZMap<Pos> concurrentXyzMap;
+    private XZMap<Pos> xzMap;
+
+    private Pos[] lookups;
+    private int next;
+
+    @Setup
+    public void setup() {
+        xyzMap = new XYZMap<>(0.7f, 8000);
+        concurrentXyzMap = new ConcurrentXYZMap<>(0.7f, 8000);
+        xzMap = new XZMap<>(0.7f, 1000);
+        for (int x = -RADIUS; x <= RADIUS; x++) {
+            for (int y = -RADIUS; y <= RADIUS; y++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    xyzMap.put(new Pos(x, y, z));
+                    concurrentXyzMap.put(new Pos(x, y, z));
+                }
+            }
+            for (int z = -RADIUS; z <= RADIUS; z++) {
+                xzMap.put(new Pos(x, 0, z));
+            }
+        }
+        Random rand = new Random(42);
+        lookups = new Pos[LOOKUPS];
+        // (33/41)^3, so about half of the positions are in the map
+        int half = RADIUS * 5 / 4;
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = new Pos(rand.nextInt(half * 2 + 1) - half, rand.nextInt(half * 2 + 1) - half, rand.nextInt(half * 2 + 1) - half);
+        }
+    }
+
+    private Pos nextPos() {
+        return lookups[next++ & (LOOKUPS - 1)];
+    }
+
+    @Benchmark
+    public Pos xyzMapGet() {
+        Pos pos = nextPos();
+        return xyzMap.get(pos.x, pos.y, pos.z);
+    }
+
+    @Benchmark
+    public Pos concurrentXyzMapGet() {
+        Pos pos = nextPos();
+        return concurrentXyzMap.get(pos.x, pos.y, pos.z);
+    }
+
+    @Benchmark
+    public Pos xzMapGet() {
+        Pos pos = nextPos();
+        return xzMap.get(pos.x, pos.z);
+    }
+
+    @Benchmark
+    public void xyzMapPutRemove(Blackhole bh) {
+        Pos pos = nextPos();
+        Pos old = xyzMap.remove(pos.x, pos.y, pos.z);
+        if (old != null) {
+            bh.consume(xyzMap.put(old));
+        } else {
+            // keep the map contents the same between invocations
+            bh.consume(xyzMap.put(pos));
+            bh.consume(xyzMap.remove(pos));
+        }
+    }
+
+    @Benchmark
+    public void concurrentXyzMapPutRemove(Blackhole bh) {
+        Pos pos = nextPos();
+        Pos old = concurrentXyzMap.remove(pos.x, pos.y, pos.z);
+        if (old != null) {
+            bh.consume(concurrentXyzMap.put(old));
+        } else {
+            // keep the map contents the same between invocations
+            bh.consume(concurrentXyzMap.put(pos));
+            bh.consume(concurrentXyzMap.remove(pos));
+        }
+    }
+
+    @Benchmark
+    public void xzMapPutRemove(Blackhole bh) {
+        Pos pos = nextPos();
+        Pos old = xzMap.remove(pos.x, pos.z);
+        if (old != null) {
+            bh.consume(xzMap.put(old));
+        } else {
+            // keep the map contents the same between invocations
+            bh.consume(xzMap.put(pos));
+            bh.consume(xzMap.remove(pos));
+        }
+    }
+
+    @Benchmark
+    public void xyzMapIterate(Blackhole bh) {
+        for (Pos pos : xyzMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    public void concurrentXyzMapIterate(Blackhole bh) {
+        for (Pos pos : concurrentXyzMap) {
+            bh.consume(pos);
+        }
+    }
+
+    private static final class Pos implements XYZAddressable, XZAddressable {
+
+        final int x, y, z;
+
+        Pos(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
+import io.github.opencubicchunks.cubicchunks.core.world.BenchmarkWorld;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Block light propagation when placing and then removing a light source, with blocks accessed through
+ * {@link FastCubeBlockAccess} like {@link LightingManager} does.
+ */
+@State(Scope.Thread)
+public class LightPropagatorBenchmark {
+
+    /**
+     * Size of the region in cubes, enough for light to spread from the center without reaching the edges
+     */
+    private static final int SIZE_CUBES = 4;
+
+    /**
+     * Fraction of blocks that are opaque
+     */
+    @Param({"0", "0.3"})
+    public float opaqueFraction;
+
+    private final LightPropagator propagator = new LightPropagator();
+    private FastCubeBlockAccess blocks;
+    private ExtendedBlockStorage centerStorage;
+    private BlockPos center;
+
+    @Setup
+    public void setup() {
+        BenchmarkWorld world = new BenchmarkWorld();
+        Random rand = new Random(42);
+        for (int cubeX = 0; cubeX < SIZE_CUBES; cubeX++) {
+            for (int cubeY = 0; cubeY < SIZE_CUBES; cubeY++) {
+                for (int cubeZ = 0; cubeZ < SIZE_CUBES; cubeZ++) {
+                    Cube cube = world.createCube(cubeX, cubeY, cubeZ);
+                    ExtendedBlockStorage ebs = new ExtendedBlockStorage(Cube.SIZE * cubeY, true);
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        for (int y = 0; y < Cube.SIZE; y++) {
+                            for (int z = 0; z < Cube.SIZE; z++) {
+                                if (rand.nextFloat() < opaqueFraction) {
+                                    ebs.set(x, y, z, Blocks.STONE.getDefaultState());
+                                }
+                            }
+                        }
+                    }
+                    cube.setStorage(ebs);
+                }
+            }
+        }
+        blocks = new FastCubeBlockAccess(world.getWorld())
+                .init(world.getCubeProvider(), new CubePos(0, 0, 0), new CubePos(SIZE_CUBES - 1, SIZE_CUBES - 1, SIZE_CUBES - 1));
+        int centerCube = SIZE_CUBES / 2;
+        center = new BlockPos(centerCube * Cube.SIZE, centerCube * Cube.SIZE, centerCube * Cube.SIZE);
+        centerStorage = world.getCubeProvider().getLoadedCube(centerCube, centerCube, centerCube).getStorage();
+    }
+
+    @Benchmark
+    public void placeAndRemoveLightSource() {
+        centerStorage.set(0, 0, 0, Blocks.GLOWSTONE.getDefaultState());
+        propagator.propagateLight(center, Collections.singleton(center), blocks, EnumSkyBlock.BLOCK, pos -> {});
+        centerStorage.set(0, 0, 0, Blocks.AIR.getDefaultState());
+        propagator.propagateLight(center, Collections.singleton(center), blocks, EnumSkyBlock.BLOCK, pos -> {});
+    }
+}
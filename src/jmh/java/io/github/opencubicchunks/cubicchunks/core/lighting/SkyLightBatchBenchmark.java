@@ -0,0 +1,93 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.core.world.BenchmarkWorld;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The main thread part of starting an asynchronous sky light update: adding a cube to a {@link SkyLightBatch}, which
+ * copies opacity and sky light of the cube and its 26 neighbors.
+ */
+@State(Scope.Thread)
+public class SkyLightBatchBenchmark {
+
+    /**
+     * Fraction of blocks that are not air. Cubes without any blocks don't need their opacity copied.
+     */
+    @Param({"0", "0.5", "1"})
+    public float solidFraction;
+
+    private World world;
+    private Cube center;
+    private final boolean[] columns = new boolean[Cube.SIZE * Cube.SIZE];
+
+    @Setup
+    public void setup() {
+        BenchmarkWorld benchmarkWorld = new BenchmarkWorld();
+        world = benchmarkWorld.getWorld();
+        Random rand = new Random(42);
+        IBlockState[] states = {Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(), Blocks.LEAVES.getDefaultState()};
+        for (int cubeX = -1; cubeX <= 1; cubeX++) {
+            for (int cubeY = -1; cubeY <= 1; cubeY++) {
+                for (int cubeZ = -1; cubeZ <= 1; cubeZ++) {
+                    Cube cube = benchmarkWorld.createCube(cubeX, cubeY, cubeZ);
+                    ExtendedBlockStorage ebs = new ExtendedBlockStorage(Cube.SIZE * cubeY, true);
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        for (int y = 0; y < Cube.SIZE; y++) {
+                            for (int z = 0; z < Cube.SIZE; z++) {
+                                if (rand.nextFloat() < solidFraction) {
+                                    ebs.set(x, y, z, states[rand.nextInt(states.length)]);
+                                }
+                            }
+                        }
+                    }
+                    cube.setStorage(ebs);
+                }
+            }
+        }
+        center = benchmarkWorld.getCubeProvider().getLoadedCube(0, 0, 0);
+        Arrays.fill(columns, true);
+    }
+
+    @Benchmark
+    public SkyLightBatch snapshotCube() {
+        SkyLightBatch batch = new SkyLightBatch(world);
+        batch.add(center, columns);
+        return batch;
+    }
+}
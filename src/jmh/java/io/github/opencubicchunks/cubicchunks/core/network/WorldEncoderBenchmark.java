@@ -0,0 +1,126 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.world.BenchmarkWorld;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.Unpooled;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Encoding cube data for {@link PacketCubes} with {@link WorldEncoder#encodeCube(Cube)}, and writing the packet with
+ * {@link WorldEncoder#encodeCubes(PacketBuffer, List, Collection)}, for underground cubes that can't use the uniform
+ * block and light shortcuts. All cubes are in the same column, so its heightmap is sent once.
+ */
+@State(Scope.Thread)
+public class WorldEncoderBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int cubeCount;
+
+    private Cube[] cubes;
+    private List<byte[]> encodedCubes;
+    private Collection<Chunk> heightMapColumns;
+    private PacketBuffer out;
+
+    @Setup
+    public void setup() {
+        BenchmarkWorld world = new BenchmarkWorld();
+        Random rand = new Random(42);
+        IBlockState[] ores = {Blocks.COAL_ORE.getDefaultState(), Blocks.IRON_ORE.getDefaultState(), Blocks.GOLD_ORE.getDefaultState()};
+        cubes = new Cube[cubeCount];
+        for (int i = 0; i < cubeCount; i++) {
+            Cube cube = world.createCube(0, i, 0);
+            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(i), true);
+            for (int x = 0; x < 16; x++) {
+                for (int y = 0; y < 16; y++) {
+                    for (int z = 0; z < 16; z++) {
+                        if (rand.nextInt(10) == 0) {
+                            // caves, dimly lit by nearby light sources
+                            ebs.setBlockLight(x, y, z, rand.nextInt(4));
+                            continue;
+                        }
+                        ebs.set(x, y, z, rand.nextInt(50) == 0 ? ores[rand.nextInt(ores.length)] : Blocks.STONE.getDefaultState());
+                    }
+                }
+            }
+            cube.setStorage(ebs);
+            cube.setBiomeArray(new byte[Coords.BIOMES_PER_CUBE]);
+            cubes[i] = cube;
+        }
+        Chunk column = world.getColumn(0, 0);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                ((IColumn) column).getOpacityIndex().onOpacityChange(x, 64 + rand.nextInt(16), z, 255);
+            }
+        }
+        encodedCubes = new ArrayList<>();
+        for (byte[] encoded : encodeCubes()) {
+            encodedCubes.add(encoded);
+        }
+        heightMapColumns = Collections.singletonList(column);
+        out = new PacketBuffer(Unpooled.buffer(WorldEncoder.getEncodedSize(encodedCubes, heightMapColumns)));
+    }
+
+    /**
+     * Encodes each cube, which is done once per tick for each changed or newly sent cube, no matter how many players
+     * it's sent to.
+     */
+    @Benchmark
+    public byte[][] encodeCubes() {
+        byte[][] encoded = new byte[cubes.length][];
+        for (int i = 0; i < cubes.length; i++) {
+            encoded[i] = WorldEncoder.encodeCube(cubes[i]);
+        }
+        return encoded;
+    }
+
+    /**
+     * Writes the already encoded cubes and the heightmap of their column, which is done for each player.
+     */
+    @Benchmark
+    public PacketBuffer writePacket() {
+        out.clear();
+        WorldEncoder.encodeCubes(out, encodedCubes, heightMapColumns);
+        return out;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.world.BenchmarkWorld;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.DataFixesManager;
+import net.minecraft.util.datafix.FixTypes;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.IFMLSidedHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Random;
+
+/**
+ * Saving and loading a cube the way {@link RegionCubeIO} does it: {@link IONbtWriter#write(Cube)} and compression
+ * when saving, decompression, data fixers and {@link IONbtReader#readCubeAsyncPart(Chunk, int, int, int, NBTTagCompound)}
+ * when loading.
+ */
+@State(Scope.Thread)
+public class IONbtBenchmark {
+
+    /**
+     * Kind of cube to save. Underground cubes are mostly stone with some ores and caves, surface cubes are half air,
+     * and sky cubes contain only air.
+     */
+    @Param({"underground", "surface", "sky"})
+    public String cubeType;
+
+    private Chunk column;
+    private Cube cube;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        BenchmarkWorld world = new BenchmarkWorld();
+        // the data version is written to every cube, and FML gets the data fixer from the side it's running on
+        IFMLSidedHandler side = mock(IFMLSidedHandler.class);
+        doReturn(DataFixesManager.createFixer()).when(side).getDataFixer();
+        Field sidedDelegate = FMLCommonHandler.class.getDeclaredField("sidedDelegate");
+        sidedDelegate.setAccessible(true);
+        sidedDelegate.set(FMLCommonHandler.instance(), side);
+
+        cube = world.createCube(0, 0, 0);
+        column = cube.getColumn();
+        fill(cube, cubeType, new Random(42));
+        compressed = write();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return IONbtWriter.writeNbtBytes(IONbtWriter.write(cube));
+    }
+
+    @Benchmark
+    public Cube read() throws IOException {
+        NBTTagCompound nbt = FMLCommonHandler.instance().getDataFixer()
+                .process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(compressed)));
+        return IONbtReader.readCubeAsyncPart(column, 0, 0, 0, nbt);
+    }
+
+    private static void fill(Cube cube, String cubeType, Random rand) {
+        if ("sky".equals(cubeType)) {
+            return; // sky cubes have no block storage
+        }
+        IBlockState[] ores = {Blocks.COAL_ORE.getDefaultState(), Blocks.IRON_ORE.getDefaultState(), Blocks.GOLD_ORE.getDefaultState()};
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    boolean solid = "underground".equals(cubeType) ? rand.nextInt(10) != 0 : y < 8;
+                    if (solid) {
+                        ebs.set(x, y, z, rand.nextInt(50) == 0 ? ores[rand.nextInt(ores.length)] : Blocks.STONE.getDefaultState());
+                        ebs.setSkyLight(x, y, z, 0);
+                    } else {
+                        ebs.setSkyLight(x, y, z, "underground".equals(cubeType) ? 0 : 15);
+                        ebs.setBlockLight(x, y, z, "underground".equals(cubeType) ? rand.nextInt(4) : 0);
+                    }
+                }
+            }
+        }
+        cube.setStorage(ebs);
+        cube.setBiomeArray(new byte[Coords.BIOMES_PER_CUBE]);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.IChunkProvider;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Real {@link Cube}s for benchmarks, in a mocked world and mocked columns.
+ * <p>
+ * Without mixins applied, a world can't be created, so only what cubes need from the world and columns is provided:
+ * an overworld-like provider with sky light, a lighting manager that doesn't track anything, server heightmaps and
+ * a cube provider that returns the cubes created here.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class BenchmarkWorld {
+
+    private final World world;
+    private final ICubeProviderInternal cubeProvider;
+    private final Map<ChunkPos, Chunk> columns = new HashMap<>();
+    private final Map<CubePos, Cube> cubes = new HashMap<>();
+
+    public BenchmarkWorld() {
+        Bootstrap.register();
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        world = mock(World.class, withSettings().extraInterfaces(ICubicWorldInternal.class));
+        setField(World.class, world, "provider", provider);
+        when(((ICubicWorldInternal) world).getLightingManager()).thenReturn(mock(LightingManager.class));
+
+        cubeProvider = mock(ICubeProviderInternal.class, withSettings().extraInterfaces(IChunkProvider.class));
+        when(world.getChunkProvider()).thenReturn((IChunkProvider) cubeProvider);
+        when(cubeProvider.getLoadedColumn(anyInt(), anyInt()))
+                .thenAnswer(inv -> columns.get(new ChunkPos((int) inv.getArguments()[0], (int) inv.getArguments()[1])));
+        when(cubeProvider.getLoadedCube(anyInt(), anyInt(), anyInt()))
+                .thenAnswer(inv -> cubes.get(new CubePos((int) inv.getArguments()[0], (int) inv.getArguments()[1], (int) inv.getArguments()[2])));
+        when(cubeProvider.getLoadedCube(any(CubePos.class))).thenAnswer(inv -> cubes.get((CubePos) inv.getArguments()[0]));
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return a cube provider that returns the columns and cubes created by this world, and null for all others
+     */
+    public ICubeProviderInternal getCubeProvider() {
+        return cubeProvider;
+    }
+
+    /**
+     * Returns the column at the given position, creating it with an empty heightmap if it doesn't exist yet.
+     */
+    public Chunk getColumn(int columnX, int columnZ) {
+        return columns.computeIfAbsent(new ChunkPos(columnX, columnZ), pos -> {
+            Chunk column = mock(Chunk.class, withSettings().extraInterfaces(IColumnInternal.class));
+            setField(Chunk.class, column, "x", columnX);
+            setField(Chunk.class, column, "z", columnZ);
+            int[] heights = new int[Cube.SIZE * Cube.SIZE];
+            Arrays.fill(heights, Coords.NO_HEIGHT);
+            when(column.getWorld()).thenReturn(world);
+            when(column.getHeightMap()).thenReturn(heights);
+            when(((IColumnInternal) column).getOpacityIndex()).thenReturn(new ServerHeightMap(heights));
+            return column;
+        });
+    }
+
+    /**
+     * Creates an empty cube at the given position, replacing the existing cube there.
+     */
+    public Cube createCube(int cubeX, int cubeY, int cubeZ) {
+        Cube cube = new Cube(getColumn(cubeX, cubeZ), cubeY);
+        cubes.put(cube.getCoords(), cube);
+        return cube;
+    }
+
+    private static void setField(Class<?> owner, Object obj, String name, Object value) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(obj, value);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
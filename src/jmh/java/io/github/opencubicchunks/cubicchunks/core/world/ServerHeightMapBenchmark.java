@@ -0,0 +1,117 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Heightmap updates and queries for a column with terrain similar to generated terrain: solid ground up to a varying
+ * height, with some caves and floating blocks above.
+ */
+@State(Scope.Thread)
+public class ServerHeightMapBenchmark {
+
+    private static final int UPDATES = 1 << 12;
+
+    private ServerHeightMap heightMap;
+    // opacity of each block, to know the current state of the block when toggling it
+    private final boolean[] opaque = new boolean[16 * 16 * 256];
+
+    private int[] updateX;
+    private int[] updateY;
+    private int[] updateZ;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int[] heights = new int[256];
+        Arrays.fill(heights, Coords.NO_HEIGHT);
+        heightMap = new ServerHeightMap(heights);
+
+        Random rand = new Random(42);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int top = 64 + rand.nextInt(32);
+                for (int y = 0; y <= top; y++) {
+                    setOpaque(x, y, z, true);
+                }
+                // caves
+                for (int i = 0; i < 4; i++) {
+                    int caveY = rand.nextInt(top);
+                    for (int y = caveY; y < caveY + 4 && y < top; y++) {
+                        setOpaque(x, y, z, false);
+                    }
+                }
+                // floating blocks, these create more segments
+                for (int i = 0; i < 4; i++) {
+                    setOpaque(x, top + 2 + rand.nextInt(64), z, true);
+                }
+            }
+        }
+
+        updateX = new int[UPDATES];
+        updateY = new int[UPDATES];
+        updateZ = new int[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            updateX[i] = rand.nextInt(16);
+            updateY[i] = rand.nextInt(256);
+            updateZ[i] = rand.nextInt(16);
+        }
+    }
+
+    private void setOpaque(int x, int y, int z, boolean isOpaque) {
+        opaque[(y << 8) | (x << 4) | z] = isOpaque;
+        heightMap.onOpacityChange(x, y, z, isOpaque ? 255 : 0);
+    }
+
+    @Benchmark
+    public void onOpacityChange() {
+        int i = next++ & (UPDATES - 1);
+        int x = updateX[i], y = updateY[i], z = updateZ[i];
+        boolean wasOpaque = opaque[(y << 8) | (x << 4) | z];
+        // toggle the block and change it back, so that the heightmap stays the same between invocations
+        heightMap.onOpacityChange(x, y, z, wasOpaque ? 0 : 255);
+        heightMap.onOpacityChange(x, y, z, wasOpaque ? 255 : 0);
+    }
+
+    @Benchmark
+    public int getTopBlockY() {
+        int i = next++ & (UPDATES - 1);
+        return heightMap.getTopBlockY(updateX[i], updateZ[i]);
+    }
+
+    @Benchmark
+    public int getTopBlockYBelow() {
+        int i = next++ & (UPDATES - 1);
+        return heightMap.getTopBlockYBelow(updateX[i], updateZ[i], updateY[i]);
+    }
+}
@@ -86,8 +86,10 @@ public class CubicChunks {
         try {
             // Versions newer than current will be only checked on the other side
             // (I know this can be hard to actually fully understand)
-            SUPPORTED_SERVER_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.887.0,)");
-            SUPPORTED_CLIENT_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.887.0,)");
+            // Raise both when the network protocol changes. 0.0.1200.0: single block state and uniform light cubes in
+            // PacketCubes, cubes encoded once per tick and heightmaps sent once per column
+            SUPPORTED_SERVER_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.1200.0,)");
+            SUPPORTED_CLIENT_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.1200.0,)");
         } catch (InvalidVersionSpecificationException e) {
             throw new Error(e);
         }
@@ -192,8 +194,8 @@ public class CubicChunks {
 
         ArtifactVersion version = new DefaultArtifactVersion(remoteFullVersion);
         ArtifactVersion currentVersion = new DefaultArtifactVersion(VERSION);
-        if (currentVersion.compareTo(version) < 0) {
-            return true; // allow connection if this version is older, let newer one decide
+        if (currentVersion.compareTo(version) <= 0) {
+            return true; // allow connection if this version is older, let newer one decide. The same version always works
         }
         return (remoteSide.isClient() ? SUPPORTED_CLIENT_VERSIONS : SUPPORTED_SERVER_VERSIONS).containsVersion(version);
     }
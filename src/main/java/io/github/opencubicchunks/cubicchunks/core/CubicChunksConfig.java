@@ -27,6 +27,7 @@ package io.github.opencubicchunks.cubicchunks.core;
 import com.google.common.collect.Range;
 import com.google.common.collect.TreeRangeSet;
 
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer.Requirement;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.common.config.Config;
@@ -48,15 +49,40 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @Config(modid = CubicChunks.MODID, category = "general")
 public class CubicChunksConfig {
 
-    @Config.Comment("Chunk garbage collector update interval. Lower value will increase CPU usage, but can reduce memory usage.")
+    @Config.Comment("Minimum amount of ticks a cube or column stays loaded after it's no longer used. Lower value can reduce memory usage,"
+            + " but cubes may be reloaded more often when players move back and forth.")
     @Config.LangKey("cubicchunks.config.chunk_gc_interval")
     public static int chunkGCInterval = 20 * 10;
 
+    @Config.Comment("Maximum amount of time spent on unloading unused cubes and columns each tick per dimension.")
+    @Config.LangKey("cubicchunks.config.chunk_gc_time_limit_millis")
+    @Config.RangeInt(min = 1)
+    public static int chunkGCTimeLimitMillis = 5;
+
     @Config.Comment("Eliminates a few data copies in compatibility generator. May break some mods." +
             " Disable if you experience issues in modded dimensions or world types")
     @Config.LangKey("cubicchunks.config.optimized_compatibility_generator")
     public static boolean optimizedCompatibilityGenerator = true;
 
+    @Config.LangKey("cubicchunks.config.compatibility_generator_cache_size")
+    @Config.Comment("Amount of vanilla chunks kept by compatibility generator, so that cubes of the same column generated at"
+            + " different times don't generate the whole vanilla chunk again")
+    @Config.RangeInt(min = 1)
+    public static int compatibilityGeneratorCacheSize = 32;
+
+    @Config.LangKey("cubicchunks.config.world_block_access")
+    @Config.Comment("Determines what World.getBlockState and World.setBlockState do on the server when the cube isn't loaded.\n"
+            + "GENERATE - load the cube, or generate it if it doesn't exist yet\n"
+            + "LOAD - only load cubes that already exist, other cubes are treated as air and can't be modified\n"
+            + "GET_CACHED - never load cubes, unloaded cubes are treated as air and can't be modified")
+    public static BlockAccessMode worldBlockAccessMode = BlockAccessMode.GENERATE;
+
+    @Config.LangKey("cubicchunks.config.sync_block_access_stack_trace_interval")
+    @Config.Comment("Logs stack trace of every N-th cube loaded or generated on the server thread by World.getBlockState or "
+            + "World.setBlockState. Such loads are always counted, 0 disables only the logging.")
+    @Config.RangeInt(min = 0)
+    public static int syncBlockAccessStackTraceInterval = 0;
+
 
     @Config.LangKey("cubicchunks.config.force_cc")
     @Config.Comment("Determines when a cubic chunks world should be created for non-cubic-chunks world types.\n"
@@ -74,6 +100,17 @@ public class CubicChunksConfig {
     @Config.Comment("Maximum amount of time spent on generating chunks per dimension.")
     public static int maxCubeGenerationTimeMillis = 50;
 
+    @Config.LangKey("cubicchunks.config.parallel_cube_generation")
+    @Config.Comment("Generates cube terrain on worker threads, only population and lighting is done on the server thread. "
+            + "Only has an effect for cube generators that support being called from multiple threads.")
+    public static boolean parallelCubeGeneration = false;
+
+    @Config.LangKey("cubicchunks.config.cube_generation_threads")
+    @Config.Comment("The amount of worker threads used for parallel cube generation. 0 means one less than the amount of available processors.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int cubeGenerationThreads = 0;
+
     @Config.LangKey("cubicchunks.config.use_vanilla_world_generators")
     @Config.Comment("Enabling this option will force cubic chunks to use world generators designed for two dimensional chunks, which are often used "
             + "for custom ore generators added by mods. To do so cubic chunks will pregenerate cubes in a range of height from 0 to 255. This is "
@@ -188,10 +225,22 @@ public class CubicChunksConfig {
             + "You can enable it if you don't need normal skylight values but want extra performance for worldgen and block updates")
     public static boolean fastSimplifiedSkyLight = false;
 
+    @Config.LangKey("cubicchunks.config.async_sky_light")
+    @Config.Comment("Enables propagating large sky light updates on a separate thread. Light values computed there are only applied "
+            + "if the blocks didn't change in the meantime, so this only delays light updates slightly. Small updates are "
+            + "always done on the main thread.")
+    public static boolean asyncSkyLight = false;
+
     @Config.LangKey("cubicchunks.config.cubes_to_send_per_tick")
     @Config.Comment("Max amount of cubes sent to client per tick to players")
     public static int cubesToSendPerTick = 81 * 8 + 1;
 
+    @Config.LangKey("cubicchunks.config.cube_send_bytes_per_tick")
+    @Config.Comment("Max amount of cube data in bytes sent to each player per tick, 0 for no limit. Cubes closest to the player "
+            + "are sent first, and no cubes are sent while the player's connection can't keep up.")
+    @Config.RangeInt(min = 0)
+    public static int cubeSendBytesPerTick = 1024 * 1024;
+
     @Config.LangKey("cubicchunks.config.vanilla_clients")
     @Config.Comment("Options relating to support for vanilla clients.")
     public static VanillaClients vanillaClients = new VanillaClients();
@@ -288,4 +337,20 @@ public class CubicChunksConfig {
         LOAD_NOT_EXCLUDED,
         ALWAYS
     }
+
+    public enum BlockAccessMode {
+        GENERATE(Requirement.GENERATE),
+        LOAD(Requirement.LOAD),
+        GET_CACHED(Requirement.GET_CACHED);
+
+        private final Requirement requirement;
+
+        BlockAccessMode(Requirement requirement) {
+            this.requirement = requirement;
+        }
+
+        public Requirement getRequirement() {
+            return requirement;
+        }
+    }
 }
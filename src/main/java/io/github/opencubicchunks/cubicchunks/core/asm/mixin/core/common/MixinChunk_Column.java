@@ -81,6 +81,10 @@ public abstract class MixinChunk_Column implements IColumn, IColumnInternal {
         if (cachedCube != null && cachedCube.getY() == cubeY) {
             return cachedCube;
         }
+        Cube cube = cubeMap.get(cubeY);
+        if (cube != null) {
+            return cube;
+        }
         return getWorld().getCubeCache().getLoadedCube(x, cubeY, z);
     }
 
@@ -89,6 +93,10 @@ public abstract class MixinChunk_Column implements IColumn, IColumnInternal {
         if (cachedCube != null && cachedCube.getY() == cubeY) {
             return cachedCube;
         }
+        Cube cube = cubeMap.get(cubeY);
+        if (cube != null) {
+            return cube;
+        }
         return getWorld().getCubeCache().getCube(x, cubeY, z);
     }
 
@@ -137,14 +137,23 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         if (!isColumn) {
             return storageArrays[index];
         }
+        return getCube_CubicChunks(index).getStorage();
+    }
+
+    // the column keeps a direct index of its cubes, go through the world only if it's not there yet
+    private Cube getCube_CubicChunks(int index) {
         if (cachedCube != null && cachedCube.getY() == index) {
-            return cachedCube.getStorage();
+            return cachedCube;
         }
-        Cube cube = getWorld().getCubeCache().getCube(this.x, index, this.z);
+        Cube cube = cubeMap.get(index);
+        if (cube != null) {
+            return cube;
+        }
+        cube = getWorld().getCubeCache().getCube(this.x, index, this.z);
         if (!(cube instanceof BlankCube)) {
             cachedCube = cube;
         }
-        return cube.getStorage();
+        return cube;
     }
 
     // setEBS is unlikely to be used extremely frequently, no caching
@@ -160,7 +169,10 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             cachedCube.setStorage(ebs);
             return;
         }
-        Cube loaded = getWorld().getCubeCache().getLoadedCube(this.x, index, this.z);
+        Cube loaded = cubeMap.get(index);
+        if (loaded == null) {
+            loaded = getWorld().getCubeCache().getLoadedCube(this.x, index, this.z);
+        }
         if (loaded == null) {
             // BlankCube clientside. This is the only case where getEBS doesn't create cube
             return;
@@ -542,11 +554,8 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
     private ClassInheritanceMultiMap<?> addEntity_getEntityList(ClassInheritanceMultiMap<?>[] entityLists, int idx, Entity entity) {
         if (!isColumn) {
             return entityLists[idx];
-        } else if (cachedCube != null && cachedCube.getY() == idx) {
-            cachedCube.getEntityContainer().addEntity(entity);
-            return null;
         } else {
-            getWorld().getCubeCache().getCube(this.x, idx, this.z).getEntityContainer().addEntity(entity);
+            getCube_CubicChunks(idx).getEntityContainer().addEntity(entity);
             return null;
         }
     }
@@ -603,11 +612,8 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             int index) {
         if (!isColumn) {
             return entityLists[idx];
-        } else if (cachedCube != null && cachedCube.getY() == idx) {
-            cachedCube.getEntityContainer().remove(entity);
-            return null;
         } else {
-            getWorld().getCubeCache().getCube(this.x, idx, this.z).getEntityContainer().remove(entity);
+            getCube_CubicChunks(idx).getEntityContainer().remove(entity);
             return null;
         }
     }
@@ -710,28 +716,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
                 blockToCube(getWorld().getMaxHeight()));
 
         for (Cube cube : cubeMap.cubes(minY, maxY)) {
-            if (cube.getEntityContainer().getEntitySet().isEmpty()) {
-                continue;
-            }
-            for (Entity entity : cube.getEntityContainer().getEntitySet()) {
-                if (!entity.getEntityBoundingBox().intersects(aabb) || entity == entityIn) {
-                    continue;
-                }
-                if (filter == null || filter.apply(entity)) {
-                    listToFill.add(entity);
-                }
-
-                Entity[] parts = entity.getParts();
-
-                if (parts != null) {
-                    for (Entity part : parts) {
-                        if (part != entityIn && part.getEntityBoundingBox().intersects(aabb)
-                                && (filter == null || filter.apply(part))) {
-                            listToFill.add(part);
-                        }
-                    }
-                }
-            }
+            cube.getEntityContainer().getEntitiesWithinAABBForEntity(entityIn, aabb, listToFill, filter);
         }
     }
 
@@ -757,11 +742,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
                 blockToCube(getWorld().getMaxHeight()));
 
         for (Cube cube : cubeMap.cubes(minY, maxY)) {
-            for (T t : cube.getEntityContainer().getEntitySet().getByClass(entityClass)) {
-                if (t.getEntityBoundingBox().intersects(aabb) && (filter == null || filter.apply(t))) {
-                    listToFill.add(t);
-                }
-            }
+            cube.getEntityContainer().getEntitiesOfTypeWithinAABB(entityClass, aabb, listToFill, filter);
         }
     }
 
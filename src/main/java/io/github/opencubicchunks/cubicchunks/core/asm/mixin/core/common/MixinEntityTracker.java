@@ -24,9 +24,14 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.entity.EntityTrackerCube;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.server.ICubicPlayerList;
+import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLiving;
 import net.minecraft.entity.EntityTracker;
@@ -34,6 +39,7 @@ import net.minecraft.entity.EntityTrackerEntry;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.play.server.SPacketEntityAttach;
 import net.minecraft.network.play.server.SPacketSetPassengers;
+import net.minecraft.util.IntHashMap;
 import net.minecraft.world.WorldServer;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -43,13 +49,19 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 @Mixin(EntityTracker.class)
 public class MixinEntityTracker implements ICubicEntityTracker {
 
+    @Shadow @Final private WorldServer world;
     @Shadow @Final private Set<EntityTrackerEntry> entries;
+    @Shadow @Final private IntHashMap<EntityTrackerEntry> trackedEntityHashTable;
     private int maxVertTrackingDistanceThreshold;
+    // tracker entries by the cube their entity is in, only used in cubic chunks worlds
+    private final XYZMap<EntityTrackerCube> entriesByCube = new XYZMap<>(0.7f, 1000);
 
     @Inject(method = "<init>", at = @At("RETURN"))
     private void onConstruct(WorldServer world, CallbackInfo ci) {
@@ -65,14 +77,145 @@ public class MixinEntityTracker implements ICubicEntityTracker {
         return e;
     }
 
+    @Inject(method = "track(Lnet/minecraft/entity/Entity;IIZ)V", at = @At("RETURN"))
+    private void onTrack(Entity entity, int trackingRange, int updateFrequency, boolean sendVelocityUpdates, CallbackInfo ci) {
+        if (!((ICubicWorld) world).isCubicWorld()) {
+            return;
+        }
+        EntityTrackerEntry entry = trackedEntityHashTable.lookup(entity.getEntityId());
+        if (entry != null) {
+            updateCubeIndex(entry);
+        }
+    }
+
+    @Inject(method = "untrack", at = @At("HEAD"))
+    private void onUntrack(Entity entity, CallbackInfo ci) {
+        EntityTrackerEntry entry = trackedEntityHashTable.lookup(entity.getEntityId());
+        if (entry != null) {
+            removeFromCubeIndex(entry);
+        }
+    }
+
+    /**
+     * Vanilla checks every entry against every player that moved, and every entry that moved against every player. Here
+     * only players watching the cube of an entity are checked, see {@link ICubicEntityTracker.Entry#updateVisibleToPlayers()},
+     * and entries are also updated when they move to another cube.
+     */
+    @Inject(method = "tick", at = @At("HEAD"), cancellable = true)
+    private void tickCubic(CallbackInfo ci) {
+        if (!((ICubicWorld) world).isCubicWorld()) {
+            return;
+        }
+        ci.cancel();
+        List<EntityPlayerMP> movedPlayers = new ArrayList<>();
+
+        for (EntityTrackerEntry entry : this.entries) {
+            boolean cubeChanged = updateCubeIndex(entry);
+            entry.updatePlayerList(this.world.playerEntities);
+            if (cubeChanged && !entry.playerEntitiesUpdated) {
+                ((ICubicEntityTracker.Entry) entry).updateVisibleToPlayers();
+            }
+            if (entry.playerEntitiesUpdated || cubeChanged) {
+                Entity entity = entry.getTrackedEntity();
+                if (entity instanceof EntityPlayerMP) {
+                    movedPlayers.add((EntityPlayerMP) entity);
+                }
+            }
+        }
+
+        for (EntityPlayerMP player : movedPlayers) {
+            updateEntriesForPlayer(player);
+        }
+    }
+
+    // entries outside of cubes the player is watching can't become visible, and they stop being visible as soon as the
+    // player stops watching the cube, so only entries within view distance need to be updated
+    private void updateEntriesForPlayer(EntityPlayerMP player) {
+        PlayerCubeMap playerCubeMap = (PlayerCubeMap) world.getPlayerChunkMap();
+        // +1 because watched cubes are updated after the player moves
+        int horizontal = playerCubeMap.getHorizontalViewDistance() + 1;
+        int vertical = playerCubeMap.getVerticalViewDistance() + 1;
+        int playerX = player.chunkCoordX;
+        int playerY = player.chunkCoordY;
+        int playerZ = player.chunkCoordZ;
+        long cubesInRange = (long) (horizontal * 2 + 1) * (horizontal * 2 + 1) * (vertical * 2 + 1);
+
+        if (entriesByCube.getSize() < cubesInRange) {
+            for (EntityTrackerCube cube : entriesByCube) {
+                if (Math.abs(cube.getX() - playerX) <= horizontal
+                        && Math.abs(cube.getY() - playerY) <= vertical
+                        && Math.abs(cube.getZ() - playerZ) <= horizontal) {
+                    updateEntriesForPlayer(player, cube);
+                }
+            }
+            return;
+        }
+        for (int x = playerX - horizontal; x <= playerX + horizontal; x++) {
+            for (int y = playerY - vertical; y <= playerY + vertical; y++) {
+                for (int z = playerZ - horizontal; z <= playerZ + horizontal; z++) {
+                    EntityTrackerCube cube = entriesByCube.get(x, y, z);
+                    if (cube != null) {
+                        updateEntriesForPlayer(player, cube);
+                    }
+                }
+            }
+        }
+    }
+
+    private void updateEntriesForPlayer(EntityPlayerMP player, EntityTrackerCube cube) {
+        for (EntityTrackerEntry entry : cube.getEntries()) {
+            if (entry.getTrackedEntity() != player) {
+                entry.updatePlayerEntity(player);
+            }
+        }
+    }
+
+    /**
+     * Moves the entry to the cube its entity is in now
+     *
+     * @return true if the entry was already indexed and it moved to a different cube
+     */
+    private boolean updateCubeIndex(EntityTrackerEntry entry) {
+        Entity entity = entry.getTrackedEntity();
+        EntityTrackerCube oldCube = ((ICubicEntityTracker.Entry) entry).getTrackerCube();
+        if (oldCube != null && oldCube.getX() == entity.chunkCoordX && oldCube.getY() == entity.chunkCoordY
+                && oldCube.getZ() == entity.chunkCoordZ) {
+            return false;
+        }
+        if (oldCube != null) {
+            removeFromCubeIndex(entry);
+        }
+        EntityTrackerCube cube = entriesByCube.get(entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ);
+        if (cube == null) {
+            cube = new EntityTrackerCube(entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ);
+            entriesByCube.put(cube);
+        }
+        cube.getEntries().add(entry);
+        ((ICubicEntityTracker.Entry) entry).setTrackerCube(cube);
+        return oldCube != null;
+    }
+
+    private void removeFromCubeIndex(EntityTrackerEntry entry) {
+        EntityTrackerCube cube = ((ICubicEntityTracker.Entry) entry).getTrackerCube();
+        if (cube == null) {
+            return;
+        }
+        cube.getEntries().remove(entry);
+        if (cube.getEntries().isEmpty()) {
+            entriesByCube.remove(cube);
+        }
+        ((ICubicEntityTracker.Entry) entry).setTrackerCube(null);
+    }
+
     // Previous version of this function contain code which force Minecraft to send all SPacketEntityAttach before any SPacketSetPassengers
     @Override public void sendLeashedEntitiesInCube(EntityPlayerMP player, ICube cubeIn) {
-        for (EntityTrackerEntry entitytrackerentry : this.entries) {
+        EntityTrackerCube cube = entriesByCube.get(cubeIn.getX(), cubeIn.getY(), cubeIn.getZ());
+        if (cube == null) {
+            return;
+        }
+        for (EntityTrackerEntry entitytrackerentry : cube.getEntries()) {
             Entity entity = entitytrackerentry.getTrackedEntity();
-            if (entity != player &&
-                    entity.chunkCoordX == cubeIn.getX() &&
-                    entity.chunkCoordZ == cubeIn.getZ() &&
-                    entity.chunkCoordY == cubeIn.getY()) {
+            if (entity != player) {
 
                 entitytrackerentry.updatePlayerEntity(player);
                 //noinspection ConstantConditions
@@ -87,6 +230,18 @@ public class MixinEntityTracker implements ICubicEntityTracker {
         }
     }
 
+    @Override public void onPlayerStoppedWatchingCube(EntityPlayerMP player, CubePos cubePos) {
+        EntityTrackerCube cube = entriesByCube.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+        if (cube == null) {
+            return;
+        }
+        for (EntityTrackerEntry entry : cube.getEntries()) {
+            if (entry.getTrackedEntity() != player && entry.trackingPlayers.contains(player)) {
+                entry.updatePlayerEntity(player);
+            }
+        }
+    }
+
     @Override public void setVertViewDistance(int viewDistance) {
         this.maxVertTrackingDistanceThreshold = (viewDistance - 1) * 16;
         for (EntityTrackerEntry e : this.entries) {
@@ -25,26 +25,51 @@
 package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.entity.EntityTrackerCube;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityTrackerEntry;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.WorldServer;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
 @Mixin(EntityTrackerEntry.class)
-public class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
+public abstract class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
 
     @Shadow @Final private int range;
     @Shadow private long encodedPosY;
 
     @Shadow @Final private Entity trackedEntity;
+    @Shadow @Final public Set<EntityPlayerMP> trackingPlayers;
     private int maxVertRange;
+    @Nullable private EntityTrackerCube trackerCube;
+
+    @Shadow public abstract void updatePlayerEntity(EntityPlayerMP playerMP);
+
+    @Shadow public abstract void updatePlayerEntities(List<EntityPlayer> players);
+
+    @Redirect(method = "updatePlayerList", at = @At(value = "INVOKE",
+            target = "Lnet/minecraft/entity/EntityTrackerEntry;updatePlayerEntities(Ljava/util/List;)V"))
+    private void updatePlayerEntitiesCubic(EntityTrackerEntry entry, List<EntityPlayer> players) {
+        if (((ICubicWorld) trackedEntity.world).isCubicWorld()) {
+            updateVisibleToPlayers();
+        } else {
+            updatePlayerEntities(players);
+        }
+    }
 
     @Inject(method = "isVisibleTo", cancellable = true, at = @At("RETURN"))
     private void isVisibleToCubic(EntityPlayerMP player, CallbackInfoReturnable<Boolean> cir) {
@@ -72,4 +97,28 @@ public class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
     @Override public void setMaxVertRange(int maxVertTrackingDistanceThreshold) {
         this.maxVertRange = maxVertTrackingDistanceThreshold;
     }
+
+    @Nullable @Override public EntityTrackerCube getTrackerCube() {
+        return trackerCube;
+    }
+
+    @Override public void setTrackerCube(@Nullable EntityTrackerCube cube) {
+        this.trackerCube = cube;
+    }
+
+    @Override public void updateVisibleToPlayers() {
+        if (trackedEntity.forceSpawn) {
+            // visible regardless of watched cubes
+            updatePlayerEntities(trackedEntity.world.playerEntities);
+            return;
+        }
+        // isPlayerWatchingThisChunk only allows players the cube has been sent to, everyone else can only stop tracking this
+        // entity. Players still waiting for the cube are updated by the entity tracker when it's sent to them
+        for (EntityPlayerMP player : trackingPlayers.toArray(new EntityPlayerMP[0])) {
+            updatePlayerEntity(player);
+        }
+        PlayerCubeMap playerCubeMap = (PlayerCubeMap) ((WorldServer) trackedEntity.world).getPlayerChunkMap();
+        playerCubeMap.forEachPlayerWatchingCube(trackedEntity.chunkCoordX, trackedEntity.chunkCoordY, trackedEntity.chunkCoordZ,
+                this::updatePlayerEntity);
+    }
 }
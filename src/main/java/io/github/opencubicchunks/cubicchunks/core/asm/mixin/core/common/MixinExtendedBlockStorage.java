@@ -0,0 +1,123 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
+
+import io.github.opencubicchunks.cubicchunks.core.world.IRandomTickStorage;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@Mixin(ExtendedBlockStorage.class)
+public abstract class MixinExtendedBlockStorage implements IRandomTickStorage {
+
+    @Shadow private int tickRefCount;
+
+    @Shadow public abstract IBlockState get(int x, int y, int z);
+
+    // positions of randomly ticking blocks, in no particular order, null until the index is first used
+    @Nullable private short[] randomTickPositions;
+    private int randomTickCount;
+    private boolean randomTickIndexValid;
+
+    @Inject(method = "set", at = @At("HEAD"))
+    private void updateRandomTickIndexOnSet(int x, int y, int z, IBlockState state, CallbackInfo cbi) {
+        if (!randomTickIndexValid) {
+            return;
+        }
+        boolean oldTicks = get(x, y, z).getBlock().getTickRandomly();
+        boolean newTicks = state.getBlock().getTickRandomly();
+        if (oldTicks == newTicks) {
+            return;
+        }
+        short pos = (short) (y << 8 | z << 4 | x);
+        if (newTicks) {
+            addRandomTickPosition(pos);
+            return;
+        }
+        assert randomTickPositions != null;
+        for (int i = 0; i < randomTickCount; i++) {
+            if (randomTickPositions[i] == pos) {
+                // order doesn't matter, move the last one in place of the removed one
+                randomTickPositions[i] = randomTickPositions[--randomTickCount];
+                return;
+            }
+        }
+        // not found, the data has been modified directly
+        randomTickIndexValid = false;
+    }
+
+    @Inject(method = "recalculateRefCounts", at = @At("RETURN"))
+    private void invalidateRandomTickIndex(CallbackInfo cbi) {
+        randomTickIndexValid = false;
+    }
+
+    private void addRandomTickPosition(short pos) {
+        if (randomTickPositions == null) {
+            randomTickPositions = new short[16];
+        } else if (randomTickCount == randomTickPositions.length) {
+            randomTickPositions = Arrays.copyOf(randomTickPositions, Math.min(randomTickCount * 2, 4096));
+        }
+        randomTickPositions[randomTickCount++] = pos;
+    }
+
+    private void rebuildRandomTickIndex() {
+        randomTickCount = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (get(x, y, z).getBlock().getTickRandomly()) {
+                        addRandomTickPosition((short) (y << 8 | z << 4 | x));
+                    }
+                }
+            }
+        }
+        randomTickIndexValid = true;
+    }
+
+    @Override public int getRandomTickCount() {
+        // tickRefCount is updated by vanilla code, if it doesn't match something changed the block data directly
+        if (!randomTickIndexValid || randomTickCount != tickRefCount) {
+            rebuildRandomTickIndex();
+        }
+        return randomTickCount;
+    }
+
+    @Override public int getRandomTickPosition(int index) {
+        assert randomTickPositions != null && index < randomTickCount;
+        return randomTickPositions[index];
+    }
+}
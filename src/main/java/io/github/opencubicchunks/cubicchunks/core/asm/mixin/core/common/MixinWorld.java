@@ -326,14 +326,28 @@ public abstract class MixinWorld implements ICubicWorldInternal {
         }
         if (this.isCubicWorld) {
             ICube cube = ((ICubeProviderInternal) this.chunkProvider)
-                    .getCube(Coords.blockToCube(pos.getX()), Coords.blockToCube(pos.getY()), Coords.blockToCube(pos.getZ()));
-            return cube.getBlockState(pos);
+                    .getCubeForBlockAccess(Coords.blockToCube(pos.getX()), Coords.blockToCube(pos.getY()), Coords.blockToCube(pos.getZ()));
+            return cube == null ? Blocks.AIR.getDefaultState() : cube.getBlockState(pos);
         } else {
             Chunk chunk = this.getChunk(pos);
             return chunk.getBlockState(pos);
         }
     }
 
+    // load the cube according to block access mode before vanilla code gets there, it would always generate it
+    @Inject(method = "setBlockState(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/state/IBlockState;I)Z",
+            at = @At("HEAD"), cancellable = true)
+    private void setBlockStateGetCube(BlockPos pos, IBlockState newState, int flags, CallbackInfoReturnable<Boolean> cir) {
+        if (!this.isCubicWorld || this.isOutsideBuildHeight(pos)) {
+            return;
+        }
+        Cube cube = ((ICubeProviderInternal) this.chunkProvider)
+                .getCubeForBlockAccess(Coords.blockToCube(pos.getX()), Coords.blockToCube(pos.getY()), Coords.blockToCube(pos.getZ()));
+        if (cube == null) {
+            cir.setReturnValue(false);
+        }
+    }
+
     @Inject(method = "getTopSolidOrLiquidBlock", at = @At("HEAD"), cancellable = true)
     private void getTopSolidOrLiquidBlockCubicChunks(BlockPos pos, CallbackInfoReturnable<BlockPos> cir) {
         if (!isCubicWorld()) {
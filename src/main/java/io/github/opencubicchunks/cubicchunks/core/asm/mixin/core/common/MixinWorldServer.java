@@ -49,6 +49,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.VanillaNetworkHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.CubeWorldEntitySpawner;
+import io.github.opencubicchunks.cubicchunks.core.world.IRandomTickStorage;
 import io.github.opencubicchunks.cubicchunks.core.world.IWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.CubicChunkManager;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -149,7 +150,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 
         this.pendingTickListEntriesHashSet = new CubeSplitTickSet();
         this.pendingTickListEntriesThisTick = new CubeSplitTickList();
-        this.worldChunkGc = new ChunkGc(getCubeCache());
+        this.worldChunkGc = getCubeCache().getChunkGc();
     }
 
     @Override public VanillaNetworkHandler getVanillaNetworkHandler() {
@@ -328,28 +329,38 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         this.profiler.startSection("tickBlocks");
         ExtendedBlockStorage ebs = cube.getStorage();
         if (ebs != Chunk.NULL_BLOCK_STORAGE && ebs.needsRandomTick()) {
-            for (int i = 0; i < tickSpeed; ++i) {
-                tickNextBlock(chunkBlockX, chunkBlockZ, ebs);
-            }
+            tickBlocks(tickSpeed, chunkBlockX, chunkBlockZ, ebs);
         }
         this.profiler.endSection();
     }
 
-    private void tickNextBlock(int chunkBlockX, int chunkBlockZ, ExtendedBlockStorage ebs) {
-        this.updateLCG = this.updateLCG * 3 + 1013904223;
-        int rand = this.updateLCG >> 2;
-        int localX = rand & 15;
-        int localZ = rand >> 8 & 15;
-        int localY = rand >> 16 & 15;
-        IBlockState state = ebs.get(localX, localY, localZ);
-        Block block = state.getBlock();
+    private void tickBlocks(int tickSpeed, int chunkBlockX, int chunkBlockZ, ExtendedBlockStorage ebs) {
+        // Picks the same random positions as vanilla, but instead of looking up the block at the position, the position
+        // is used as index into the list of randomly ticking blocks. Each randomly ticking block is still picked with
+        // the same probability as in vanilla, without checking all the blocks that don't tick.
+        IRandomTickStorage tickStorage = (IRandomTickStorage) ebs;
+        int tickableCount = tickStorage.getRandomTickCount();
         this.profiler.startSection("randomTick");
-
-        if (block.getTickRandomly()) {
-            block.randomTick((World) (Object) this,
-                    new BlockPos(localX + chunkBlockX, localY + ebs.getYLocation(), localZ + chunkBlockZ), state, this.rand);
+        for (int i = 0; i < tickSpeed; ++i) {
+            this.updateLCG = this.updateLCG * 3 + 1013904223;
+            int rand = this.updateLCG >> 2;
+            int index = (rand >> 16 & 15) << 8 | (rand >> 8 & 15) << 4 | rand & 15;
+            if (index >= tickableCount) {
+                continue;
+            }
+            int packedPos = tickStorage.getRandomTickPosition(index);
+            int localX = packedPos & 15;
+            int localZ = packedPos >> 4 & 15;
+            int localY = packedPos >> 8 & 15;
+            IBlockState state = ebs.get(localX, localY, localZ);
+            Block block = state.getBlock();
+            // the block can be changed by a previous random tick in this loop
+            if (block.getTickRandomly()) {
+                block.randomTick((World) (Object) this,
+                        new BlockPos(localX + chunkBlockX, localY + ebs.getYLocation(), localZ + chunkBlockZ), state, this.rand);
+                tickableCount = tickStorage.getRandomTickCount();
+            }
         }
-
         this.profiler.endSection();
     }
 
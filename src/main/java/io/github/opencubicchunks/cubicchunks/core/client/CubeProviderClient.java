@@ -40,6 +40,10 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -54,6 +58,11 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
     @Nonnull private ICubicWorldInternal.Client world;
     @Nonnull private Cube blankCube;
     @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    /**
+     * Cubes with tile entities queued for creation. Clientside ticking doesn't do anything else, so only these cubes
+     * are ticked. Tile entities can be queued from chunk render threads.
+     */
+    @Nonnull private final Set<Cube> cubesWithQueuedTileEntities = ConcurrentHashMap.newKeySet();
 
     public CubeProviderClient(ICubicWorldInternal.Client world) {
         super((World) world);
@@ -97,8 +106,16 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
     @Override
     public boolean tick() {
         long i = System.currentTimeMillis();
-        for (Cube cube : cubeMap) {
+        for (Iterator<Cube> it = cubesWithQueuedTileEntities.iterator(); it.hasNext(); ) {
+            Cube cube = it.next();
             cube.tickCubeCommon(() -> System.currentTimeMillis() - i > 5L);
+            if (!cube.hasQueuedTileEntities()) {
+                it.remove();
+                // another thread may have queued a tile entity after the check
+                if (cube.hasQueuedTileEntities()) {
+                    cubesWithQueuedTileEntities.add(cube);
+                }
+            }
         }
 
         if (System.currentTimeMillis() - i > 100L) {
@@ -151,6 +168,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         }
         cube.onUnload();
         cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
+        cubesWithQueuedTileEntities.remove(cube);
         cube.getColumn().removeCube(pos.getY());
     }
 
@@ -168,6 +186,13 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         return getCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    @Override
+    public void onTileEntityQueued(Cube cube) {
+        if (cube.isCubeLoaded()) {
+            cubesWithQueuedTileEntities.add(cube);
+        }
+    }
+
     @Nullable @Override
     public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
         return cubeMap.get(cubeX, cubeY, cubeZ);
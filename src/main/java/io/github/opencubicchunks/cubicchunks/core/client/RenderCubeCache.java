@@ -50,9 +50,17 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class RenderCubeCache extends ChunkCache {
 
+    /**
+     * Used in place of cubes without block storage. Never modified, so it can be shared between all instances and the
+     * chunk render threads.
+     */
+    private static final ExtendedBlockStorage EMPTY_STORAGE = new ExtendedBlockStorage(0, true);
+
     protected int cubeY;
-    @Nonnull private final ExtendedBlockStorage[][][] cubeArrays;
-    @Nonnull private final Map<BlockPos, TileEntity>[][][] tileEntities;
+    private final int sizeX, sizeY, sizeZ;
+    // indexed by (x * sizeY + y) * sizeZ + z, see getIndex
+    @Nonnull private final ExtendedBlockStorage[] cubeArrays;
+    @Nonnull private final Map<BlockPos, TileEntity>[] tileEntities;
 
     @Nonnull private final World world;
 
@@ -64,35 +72,42 @@ public class RenderCubeCache extends ChunkCache {
         int cubeYEnd = Coords.blockToCube(to.getY() + subtract);
         int cubeZEnd = Coords.blockToCube(to.getZ() + subtract);
 
-        cubeArrays = new ExtendedBlockStorage[cubeXEnd - this.chunkX + 1][cubeYEnd - this.cubeY + 1][cubeZEnd - this.chunkZ + 1];
+        this.sizeX = cubeXEnd - this.chunkX + 1;
+        this.sizeY = cubeYEnd - this.cubeY + 1;
+        this.sizeZ = cubeZEnd - this.chunkZ + 1;
+        cubeArrays = new ExtendedBlockStorage[sizeX * sizeY * sizeZ];
         // because java is stupid and won't allow generic array creation, and temporary local variable because it won't allow annotation on assignment
         @SuppressWarnings("unchecked")
-        Map<BlockPos, TileEntity>[][][] tileEntities = new Map[cubeXEnd - this.chunkX + 1][cubeYEnd - this.cubeY + 1][cubeZEnd - this.chunkZ + 1];
+        Map<BlockPos, TileEntity>[] tileEntities = new Map[sizeX * sizeY * sizeZ];
         this.tileEntities = tileEntities;
 
-        ExtendedBlockStorage nullStorage = new ExtendedBlockStorage(0, true);
-
+        int index = 0;
         for (int currentCubeX = chunkX; currentCubeX <= cubeXEnd; currentCubeX++) {
             for (int currentCubeY = cubeY; currentCubeY <= cubeYEnd; currentCubeY++) {
                 for (int currentCubeZ = chunkZ; currentCubeZ <= cubeZEnd; currentCubeZ++) {
-                    ExtendedBlockStorage ebs;
-                    Map<BlockPos, TileEntity> teMap;
-
                     Cube cube = ((ICubicWorldInternal) world).getCubeFromCubeCoords(currentCubeX, currentCubeY, currentCubeZ);
-                    ebs = cube.getStorage();
-
-                    teMap = cube.getTileEntityMap();
-
-                    if (ebs == null) {
-                        ebs = nullStorage;
-                    }
-                    cubeArrays[currentCubeX - chunkX][currentCubeY - cubeY][currentCubeZ - chunkZ] = ebs;
-                    tileEntities[currentCubeX - chunkX][currentCubeY - cubeY][currentCubeZ - chunkZ] = teMap;
+                    ExtendedBlockStorage ebs = cube.getStorage();
+                    cubeArrays[index] = ebs == null ? EMPTY_STORAGE : ebs;
+                    tileEntities[index] = cube.getTileEntityMap();
+                    index++;
                 }
             }
         }
     }
 
+    /**
+     * Returns index of the cube containing the given position in the cube arrays, or -1 if it's not in this cache
+     */
+    private int getIndex(BlockPos pos) {
+        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
+        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
+        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
+        if (arrayX < 0 || arrayX >= sizeX || arrayY < 0 || arrayY >= sizeY || arrayZ < 0 || arrayZ >= sizeZ) {
+            return -1;
+        }
+        return (arrayX * sizeY + arrayY) * sizeZ + arrayZ;
+    }
+
     @Override
     public int getCombinedLight(BlockPos pos, int lightValue) {
         int blockLight = this.getLightForExt(EnumSkyBlock.SKY, pos);
@@ -107,15 +122,11 @@ public class RenderCubeCache extends ChunkCache {
 
     @Override
     @Nullable public TileEntity getTileEntity(BlockPos pos) {
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getIndex(pos);
+        if (index < 0) {
             return null;
         }
-        return this.tileEntities[arrayX][arrayY][arrayZ].get(pos);
+        return this.tileEntities[index].get(pos);
     }
 
     @Override
@@ -123,16 +134,11 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return Blocks.AIR.getDefaultState();
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getIndex(pos);
+        if (index < 0) {
             return Blocks.AIR.getDefaultState();
         }
-        return this.cubeArrays[arrayX][arrayY][arrayZ].get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+        return this.cubeArrays[index].get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
     }
 
     private int getLightForExt(EnumSkyBlock type, BlockPos pos) {
@@ -156,16 +162,11 @@ public class RenderCubeCache extends ChunkCache {
             }
             return max;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getIndex(pos);
+        if (index < 0) {
             return type.defaultLightValue;
         }
-        ExtendedBlockStorage cube = this.cubeArrays[arrayX][arrayY][arrayZ];
-        return getRawLight(cube, type, pos);
+        return getRawLight(this.cubeArrays[index], type, pos);
     }
 
     @Override
@@ -173,16 +174,11 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return type.defaultLightValue;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getIndex(pos);
+        if (index < 0) {
             return type.defaultLightValue;
         }
-        ExtendedBlockStorage cube = this.cubeArrays[arrayX][arrayY][arrayZ];
-        return getRawLight(cube, type, pos);
+        return getRawLight(this.cubeArrays[index], type, pos);
     }
 
     private int getRawLight(ExtendedBlockStorage ebs, EnumSkyBlock type, BlockPos pos) {
@@ -199,12 +195,7 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return defaultValue;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        if (getIndex(pos) < 0) {
             return defaultValue;
         }
         IBlockState state = getBlockState(pos);
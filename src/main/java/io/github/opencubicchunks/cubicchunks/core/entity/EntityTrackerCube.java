@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.entity;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.EntityTrackerEntry;
+
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Entity tracker entries of entities in one cube
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EntityTrackerCube implements XYZAddressable {
+
+    private final int x;
+    private final int y;
+    private final int z;
+    private final Set<EntityTrackerEntry> entries = new ObjectOpenHashSet<>();
+
+    public EntityTrackerCube(int x, int y, int z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Set<EntityTrackerEntry> getEntries() {
+        return entries;
+    }
+
+    @Override public int getX() {
+        return x;
+    }
+
+    @Override public int getY() {
+        return y;
+    }
+
+    @Override public int getZ() {
+        return z;
+    }
+}
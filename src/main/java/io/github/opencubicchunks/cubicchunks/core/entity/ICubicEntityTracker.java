@@ -24,16 +24,41 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.entity;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import net.minecraft.entity.player.EntityPlayerMP;
 
+import javax.annotation.Nullable;
+
 public interface ICubicEntityTracker {
+    /**
+     * Called after the cube data has been sent to the player. Updates visibility of all entities in the cube for that
+     * player and sends their leashes and passengers
+     */
     void sendLeashedEntitiesInCube(EntityPlayerMP player, ICube cube);
 
     void setVertViewDistance(int viewDistance);
 
+    /**
+     * Called after the player is removed from watchers of the cube, entities in that cube are no longer visible to it
+     */
+    void onPlayerStoppedWatchingCube(EntityPlayerMP player, CubePos cubePos);
+
     interface Entry {
 
         void setMaxVertRange(int maxVertTrackingDistanceThreshold);
+
+        /**
+         * @return the cube this entry is currently indexed in by the entity tracker
+         */
+        @Nullable EntityTrackerCube getTrackerCube();
+
+        void setTrackerCube(@Nullable EntityTrackerCube cube);
+
+        /**
+         * Updates visibility of the tracked entity for all players that can be affected, which are the players already
+         * tracking it and players the cube it's in has been sent to
+         */
+        void updateVisibleToPlayers();
     }
 }
@@ -35,6 +35,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
@@ -49,6 +50,7 @@ import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -70,11 +72,24 @@ public class LightingManager implements ILightingManager {
     public static final boolean NO_SUNLIGHT_PROPAGATION = "true".equalsIgnoreCase(System.getProperty("cubicchunks.nosunlight"));
 
     public static final int MAX_CLIENT_LIGHT_SCAN_DEPTH = 64;
+    /**
+     * Minimum amount of block columns that need update in a cube to update that cube on the sky light thread. For
+     * smaller updates copying the cubes takes longer than propagating the light.
+     */
+    private static final int MIN_ASYNC_COLUMNS = 16;
+    private static final int MAX_ASYNC_BATCH_CUBES = 64;
     @Nonnull private World world;
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
     @Nonnull private final List<IHeightChangeListener> heightUpdateListeners = new ArrayList<>();
     @Nullable private LightUpdateTracker tracker;
-    @Nonnull private final Set<CubeLightUpdateInfo> toUpdate = new HashSet<>();
+    @Nonnull private Set<CubeLightUpdateInfo> toUpdate = new HashSet<>();
+    @Nonnull private Set<CubeLightUpdateInfo> toUpdateSwap = new HashSet<>();
+    @Nullable private SkyLightBatch pendingBatch;
+    /**
+     * Block accesses that are not currently in use. Light updates can't be done concurrently, so there is usually only
+     * one of them.
+     */
+    @Nonnull private final ArrayDeque<FastCubeBlockAccess> blockAccessPool = new ArrayDeque<>();
 
     public LightingManager(World world) {
         this.world = world;
@@ -172,24 +187,47 @@ public class LightingManager implements ILightingManager {
     }
 
     @Override public void onTick() {
-        // make a copy to prevent CME
-        Set<CubeLightUpdateInfo> updateSet = new HashSet<>(this.toUpdate);
-        this.toUpdate.clear();
+        if (pendingBatch != null && pendingBatch.isDone()) {
+            SkyLightBatch batch = pendingBatch;
+            pendingBatch = null;
+            batch.apply(this, this::onLightSet);
+        }
+        // swap the sets to prevent CME, cubes marked while updating end up in the other set
+        Set<CubeLightUpdateInfo> updateSet = this.toUpdate;
+        this.toUpdate = this.toUpdateSwap;
+        this.toUpdateSwap = updateSet;
+
+        SkyLightBatch batch = null;
+        if (CubicChunksConfig.asyncSkyLight && !world.isRemote && pendingBatch == null) {
+            batch = new SkyLightBatch(world);
+        }
         int total = updateSet.size();
         long ms = -System.currentTimeMillis();
         for (Iterator<CubeLightUpdateInfo> iterator = updateSet.iterator(); iterator.hasNext(); ) {
             CubeLightUpdateInfo cubeLightUpdateInfo = iterator.next();
-            cubeLightUpdateInfo.tick();
-            if (!cubeLightUpdateInfo.hasUpdates()) {
+            if (batch != null && batch.size() < MAX_ASYNC_BATCH_CUBES && cubeLightUpdateInfo.updatedColumns >= MIN_ASYNC_COLUMNS) {
+                cubeLightUpdateInfo.tickEdges();
+                batch.add(cubeLightUpdateInfo.cube, cubeLightUpdateInfo.toUpdateColumns);
+                cubeLightUpdateInfo.clear();
+                cubeLightUpdateInfo.inPendingBatch = true;
+            } else {
+                cubeLightUpdateInfo.tick();
+            }
+            if (!cubeLightUpdateInfo.hasQueuedUpdates()) {
                 iterator.remove();
             }
         }
+        if (batch != null && batch.size() > 0) {
+            pendingBatch = batch;
+            batch.start();
+        }
         ms += System.currentTimeMillis();
         int updated = total - updateSet.size();
         if (ms > 50) {
             CubicChunks.LOGGER.debug("Light tick: " + total + " cubes, " + updated + " updated in " + ms + "ms, " + (ms/(double)updated) + "ms/cube");
         }
         this.toUpdate.addAll(updateSet);
+        updateSet.clear();
 
 
         LightUpdateTracker tracker = getTracker();
@@ -210,24 +248,51 @@ public class LightingManager implements ILightingManager {
         if (!world.isBlockLoaded(pos)) {
             return false;
         }
-        ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion(
-                (ICubeProviderInternal) world.getChunkProvider(),
-                pos.add(-17, -17, -17),
-                pos.add(17, 17, 17));
+        FastCubeBlockAccess blocks = acquireBlockAccess(pos.add(-17, -17, -17), pos.add(17, 17, 17));
         LightUpdateTracker tracker = getTracker();
-        lightPropagator.propagateLight(pos, Collections.singleton(pos), blocks, lightType, (updated) -> {
-            world.notifyLightSet(updated);
-            if (tracker != null) {
-                tracker.onUpdate(updated);
-            }
-        });
+        try {
+            lightPropagator.propagateLight(pos, Collections.singleton(pos), blocks, lightType, (updated) -> {
+                world.notifyLightSet(updated);
+                if (tracker != null) {
+                    tracker.onUpdate(updated);
+                }
+            });
+        } finally {
+            releaseBlockAccess(blocks);
+        }
         return true;
     }
 
+    /**
+     * Returns a block access covering all cubes in the given block region, reusing a previously released one if
+     * possible. It has to be returned using {@link #releaseBlockAccess(FastCubeBlockAccess)} when it's no longer used.
+     */
+    private FastCubeBlockAccess acquireBlockAccess(BlockPos minPos, BlockPos maxPos) {
+        FastCubeBlockAccess blocks = blockAccessPool.poll();
+        if (blocks == null) {
+            blocks = new FastCubeBlockAccess(world);
+        }
+        return blocks.init((ICubeProviderInternal) world.getChunkProvider(),
+                CubePos.fromBlockCoords(minPos), CubePos.fromBlockCoords(maxPos));
+    }
+
+    private void releaseBlockAccess(FastCubeBlockAccess blocks) {
+        blocks.clear();
+        blockAccessPool.push(blocks);
+    }
+
     private void markToUpdate(CubeLightUpdateInfo cubeLightUpdateInfo) {
         this.toUpdate.add(cubeLightUpdateInfo);
     }
 
+    private void onLightSet(BlockPos pos) {
+        world.notifyLightSet(pos);
+        LightUpdateTracker tracker = getTracker();
+        if (tracker != null) {
+            tracker.onUpdate(pos);
+        }
+    }
+
     /**
      * Updates light for given block region.
      * <p>
@@ -246,10 +311,27 @@ public class LightingManager implements ILightingManager {
         // TODO: optimize if needed
         // TODO: Figure out why it crashes with value 17
         final int LOAD_RADIUS = 17;
-        BlockPos midPos = Coords.midPos(startPos, endPos);
         BlockPos minLoad = startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS);
         BlockPos maxLoad = endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS);
-        ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion((ICubeProviderInternal) world.getChunkProvider(), minLoad, maxLoad);
+        FastCubeBlockAccess blocks = acquireBlockAccess(minLoad, maxLoad);
+        try {
+            return relightMultiBlock(startPos, endPos, type, blocks, notify);
+        } finally {
+            releaseBlockAccess(blocks);
+        }
+    }
+
+    /**
+     * Updates light for given block region using the given block access, which must cover at least 17 blocks around
+     * the updated region.
+     *
+     * @see #relightMultiBlock(BlockPos, BlockPos, EnumSkyBlock, Consumer)
+     */
+    boolean relightMultiBlock(BlockPos startPos, BlockPos endPos, EnumSkyBlock type, ILightBlockAccess blocks, Consumer<BlockPos> notify) {
+        if (NO_SUNLIGHT_PROPAGATION) {
+            return true;
+        }
+        BlockPos midPos = Coords.midPos(startPos, endPos);
         this.lightPropagator.propagateLight(midPos, BlockPos.getAllInBox(startPos, endPos), blocks, type, notify);
         return true;
     }
@@ -271,6 +353,11 @@ public class LightingManager implements ILightingManager {
         private final boolean[] toUpdateColumns = new boolean[Cube.SIZE * Cube.SIZE];
         private final LightingManager lightingManager;
         private boolean hasUpdates;
+        private int updatedColumns;
+        /**
+         * Are columns of this cube being relit by the pending {@link SkyLightBatch}?
+         */
+        private boolean inPendingBatch;
         /**
          * Do neighbor need a sky light update when it is loaded?
          */
@@ -282,6 +369,9 @@ public class LightingManager implements ILightingManager {
         }
 
         void markBlockColumnForUpdate(int localX, int localZ) {
+            if (!toUpdateColumns[index(localX, localZ)]) {
+                updatedColumns++;
+            }
             toUpdateColumns[index(localX, localZ)] = true;
             hasUpdates = true;
             lightingManager.markToUpdate(this);
@@ -296,6 +386,11 @@ public class LightingManager implements ILightingManager {
             if (NO_SUNLIGHT_PROPAGATION) {
                 return;
             }
+            tickEdges();
+            tickColumns();
+        }
+
+        private void tickEdges() {
             ICubicWorldInternal cubicWorld = cube.getWorld();
             LightingManager manager = cubicWorld.getLightingManager();
             LightUpdateTracker tracker = manager.getTracker();
@@ -372,9 +467,28 @@ public class LightingManager implements ILightingManager {
                     }
                 }
             }
+        }
+
+        private void tickColumns() {
             if (!this.hasUpdates) {
                 return;
             }
+            LightingManager manager = cube.getWorld().getLightingManager();
+            // all columns are in the same cube, so the same block access can be used for all of them
+            CubePos cpos = cube.getCoords();
+            FastCubeBlockAccess blocks = manager.acquireBlockAccess(
+                    new BlockPos(cpos.getMinBlockX() - 17, cpos.getMinBlockY() - 17, cpos.getMinBlockZ() - 17),
+                    new BlockPos(cpos.getMaxBlockX() + 17, cpos.getMaxBlockY() + 17, cpos.getMaxBlockZ() + 17));
+            try {
+                relightColumns(manager, blocks);
+            } finally {
+                manager.releaseBlockAccess(blocks);
+            }
+            this.hasUpdates = false;
+            this.updatedColumns = 0;
+        }
+
+        private void relightColumns(LightingManager manager, ILightBlockAccess blocks) {
             for (int localX = 0; localX < Cube.SIZE; localX++) {
                 for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
                     if (!toUpdateColumns[index(localX, localZ)]) {
@@ -383,26 +497,35 @@ public class LightingManager implements ILightingManager {
                     manager.relightMultiBlock(
                             new BlockPos(localToBlock(cube.getX(), localX), cubeToMinBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
                             new BlockPos(localToBlock(cube.getX(), localX), cubeToMaxBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
-                            EnumSkyBlock.SKY, pos -> {
-                                cube.getWorld().notifyLightSet(pos);
-                                if (tracker != null) {
-                                    tracker.onUpdate(pos);
-                                }
-                            }
+                            EnumSkyBlock.SKY, blocks, manager::onLightSet
                     );
                     toUpdateColumns[index(localX, localZ)] = false;
                 }
             }
-            this.hasUpdates = false;
         }
 
         private int index(int x, int z) {
             return x << 4 | z;
         }
 
+        /**
+         * @return true if sky light of this cube may still change, including columns relit by the pending sky light batch
+         */
         public boolean hasUpdates() {
+            return hasQueuedUpdates() || inPendingBatch;
+        }
+
+        private boolean hasQueuedUpdates() {
             return hasUpdates || !edgeNeedSkyLightUpdate.isEmpty();
         }
+
+        /**
+         * Called when the sky light batch this cube was added to is applied to the world
+         */
+        void onBatchApplied() {
+            inPendingBatch = false;
+        }
+
         public void clear() {
             for (int localX = 0; localX < Cube.SIZE; localX++) {
                 for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
@@ -410,6 +533,7 @@ public class LightingManager implements ILightingManager {
                 }
             }
             hasUpdates = false;
+            updatedColumns = 0;
         }
 
         public void onUnload() {
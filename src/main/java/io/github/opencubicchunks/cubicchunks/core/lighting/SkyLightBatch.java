@@ -0,0 +1,415 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XZMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sky light updates for a group of cubes, propagated outside of the main thread.
+ * <p>
+ * On the main thread, opacity, sky light and heights of the updated cubes and their neighbors are copied. The light is
+ * then propagated on a worker thread using only these copies, and the changed light values are written back to the
+ * world on the main thread. A changed value is only written back if the light value and opacity in the world are
+ * still the same as in the copy, otherwise the block column is marked to be updated again, so changes made to the world
+ * in the meantime are never overwritten.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class SkyLightBatch implements ILightBlockAccess {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Sky Light Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final byte[] NO_OPACITY = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+
+    @Nonnull private final World world;
+    @Nonnull private final ICubeProviderInternal cubeCache;
+    @Nonnull private final XYZMap<CubeSnapshot> cubes = new XYZMap<>(0.75f, 128);
+    @Nonnull private final XZMap<ColumnSnapshot> columns = new XZMap<>(0.75f, 32);
+    @Nonnull private final List<Job> jobs = new ArrayList<>();
+
+    @Nullable private Future<?> future;
+    // written by the worker thread, read after the future is done
+    private boolean failed;
+
+    // last accessed cube, light propagation accesses mostly blocks in the same cube
+    @Nullable private CubeSnapshot lastCube;
+
+    SkyLightBatch(World world) {
+        this.world = world;
+        this.cubeCache = (ICubeProviderInternal) world.getChunkProvider();
+    }
+
+    int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Takes all block columns marked for update from the given cube, to be updated by this batch. Must be called
+     * before {@link #start()}.
+     */
+    void add(Cube cube, boolean[] toUpdateColumns) {
+        jobs.add(new Job(cube, toUpdateColumns.clone()));
+        // light can't spread further than 15 blocks, so neighbor cubes are enough
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    snapshotCube(cube.getX() + dx, cube.getY() + dy, cube.getZ() + dz);
+                }
+            }
+        }
+    }
+
+    private void snapshotCube(int cubeX, int cubeY, int cubeZ) {
+        if (cubes.contains(cubeX, cubeY, cubeZ)) {
+            return;
+        }
+        Cube cube = cubeCache.getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube == null) {
+            return;
+        }
+        cubes.put(new CubeSnapshot(cube));
+        if (!columns.contains(cubeX, cubeZ)) {
+            columns.put(new ColumnSnapshot(cube.getColumn()));
+        }
+    }
+
+    void start() {
+        this.future = EXECUTOR.submit(this::propagate);
+    }
+
+    boolean isDone() {
+        return future != null && future.isDone();
+    }
+
+    private void propagate() {
+        try {
+            LightPropagator propagator = new LightPropagator();
+            for (Job job : jobs) {
+                Cube cube = job.cube;
+                for (int localX = 0; localX < Cube.SIZE; localX++) {
+                    for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                        if (!job.columns[localX << 4 | localZ]) {
+                            continue;
+                        }
+                        BlockPos start = new BlockPos(localToBlock(cube.getX(), localX), cubeToMinBlock(cube.getY()), localToBlock(cube.getZ(), localZ));
+                        BlockPos end = new BlockPos(localToBlock(cube.getX(), localX), cubeToMaxBlock(cube.getY()), localToBlock(cube.getZ(), localZ));
+                        propagator.propagateLight(Coords.midPos(start, end), BlockPos.getAllInBox(start, end), this, EnumSkyBlock.SKY, pos -> {});
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            CubicChunks.LOGGER.error("Error while propagating sky light, the updates will be done on the main thread", t);
+            failed = true;
+        }
+    }
+
+    /**
+     * Writes the results back to the world. Must be called on the main thread after {@link #isDone()} returns true.
+     * <p>
+     * If propagation failed, the updated columns are relit right away on the main thread instead, so a cube that
+     * always fails is not sent to the sky light thread again every tick.
+     *
+     * @param notify called for each position where light value has been changed
+     */
+    void apply(LightingManager manager, Consumer<BlockPos> notify) {
+        for (Job job : jobs) {
+            LightingManager.CubeLightUpdateInfo info = job.cube.getCubeLightUpdateInfo();
+            if (info != null) {
+                info.onBatchApplied();
+            }
+        }
+        if (failed) {
+            for (Job job : jobs) {
+                LightingManager.CubeLightUpdateInfo info = job.cube.getCubeLightUpdateInfo();
+                if (job.cube.isCubeLoaded() && info != null) {
+                    markColumnsForUpdate(manager, job.cube, job.columns);
+                    info.tick();
+                }
+            }
+            return;
+        }
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        boolean[] conflicts = new boolean[Cube.SIZE * Cube.SIZE];
+        for (CubeSnapshot snapshot : cubes) {
+            Cube cube = snapshot.cube;
+            if (!cube.isCubeLoaded()) {
+                continue;
+            }
+            for (EnumFacing side : EnumFacing.VALUES) {
+                if ((snapshot.edges & (1 << side.ordinal())) != 0) {
+                    cube.markEdgeNeedSkyLightUpdate(side);
+                }
+            }
+            if (snapshot.changed == null) {
+                continue;
+            }
+            boolean anyConflicts = false;
+            BitSet changed = snapshot.changed;
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                int localX = i & 15, localZ = i >> 4 & 15, localY = i >> 8;
+                pos.setPos(localToBlock(cube.getX(), localX), localToBlock(cube.getY(), localY), localToBlock(cube.getZ(), localZ));
+
+                ExtendedBlockStorage ebs = cube.getStorage();
+                int currentLight = ebs == null ? 0 : ebs.getSkyLight(localX, localY, localZ);
+                int currentOpacity = ebs == null ? 0 : ebs.get(localX, localY, localZ).getLightOpacity(world, pos);
+                if (currentLight != snapshot.originalLight.get(localX, localY, localZ) || currentOpacity != (snapshot.opacity[i] & 0xFF)) {
+                    conflicts[localX << 4 | localZ] = true;
+                    anyConflicts = true;
+                    continue;
+                }
+                int newLight = snapshot.light.get(localX, localY, localZ);
+                if (ebs != null) {
+                    ebs.setSkyLight(localX, localY, localZ, newLight);
+                } else {
+                    cube.setLightFor(EnumSkyBlock.SKY, pos, newLight);
+                }
+                notify.accept(pos);
+            }
+            cube.markDirty();
+            if (anyConflicts) {
+                markColumnsForUpdate(manager, cube, conflicts);
+                Arrays.fill(conflicts, false);
+            }
+        }
+    }
+
+    private static void markColumnsForUpdate(LightingManager manager, Cube cube, boolean[] columns) {
+        for (int localX = 0; localX < Cube.SIZE; localX++) {
+            for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                if (columns[localX << 4 | localZ]) {
+                    manager.markCubeBlockColumnForUpdate(cube, localToBlock(cube.getX(), localX), localToBlock(cube.getZ(), localZ));
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private CubeSnapshot getCube(int blockX, int blockY, int blockZ) {
+        int cubeX = Coords.blockToCube(blockX);
+        int cubeY = Coords.blockToCube(blockY);
+        int cubeZ = Coords.blockToCube(blockZ);
+        CubeSnapshot cube = lastCube;
+        if (cube != null && cube.x == cubeX && cube.y == cubeY && cube.z == cubeZ) {
+            return cube;
+        }
+        cube = cubes.get(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            lastCube = cube;
+        }
+        return cube;
+    }
+
+    private static int index(int blockX, int blockY, int blockZ) {
+        return Coords.blockToLocal(blockY) << 8 | Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX);
+    }
+
+    // Interface: ILightBlockAccess, used only on the worker thread
+    // ------------------------------------------------------------------------------------------
+
+    @Override public int getBlockLightOpacity(BlockPos pos) {
+        CubeSnapshot cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        return cube == null ? 0 : cube.opacity[index(pos.getX(), pos.getY(), pos.getZ())] & 0xFF;
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        assert lightType == EnumSkyBlock.SKY;
+        CubeSnapshot cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        if (cube == null) {
+            return 0;
+        }
+        return cube.light.get(Coords.blockToLocal(pos.getX()), Coords.blockToLocal(pos.getY()), Coords.blockToLocal(pos.getZ()));
+    }
+
+    @Override public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        assert lightType == EnumSkyBlock.SKY;
+        CubeSnapshot cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        if (cube == null) {
+            return false;
+        }
+        cube.light.set(Coords.blockToLocal(pos.getX()), Coords.blockToLocal(pos.getY()), Coords.blockToLocal(pos.getZ()), val);
+        if (cube.changed == null) {
+            cube.changed = new BitSet(Cube.SIZE * Cube.SIZE * Cube.SIZE);
+        }
+        cube.changed.set(index(pos.getX(), pos.getY(), pos.getZ()));
+        return true;
+    }
+
+    @Override public boolean canSeeSky(BlockPos pos) {
+        ColumnSnapshot column = columns.get(Coords.blockToCube(pos.getX()), Coords.blockToCube(pos.getZ()));
+        if (column == null) {
+            return false;
+        }
+        return column.heights[Coords.blockToLocal(pos.getX()) << 4 | Coords.blockToLocal(pos.getZ())] <= pos.getY();
+    }
+
+    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        assert type == EnumSkyBlock.SKY;
+        return canSeeSky(pos) ? 15 : 0;
+    }
+
+    @Override public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+        CubeSnapshot cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        if (cube == null) {
+            return;
+        }
+        int localX = Coords.blockToLocal(pos.getX());
+        int localY = Coords.blockToLocal(pos.getY());
+        int localZ = Coords.blockToLocal(pos.getZ());
+        if (localX == 0) {
+            cube.edges |= 1 << EnumFacing.WEST.ordinal();
+        } else if (localX == 15) {
+            cube.edges |= 1 << EnumFacing.EAST.ordinal();
+        }
+        if (localY == 0) {
+            cube.edges |= 1 << EnumFacing.DOWN.ordinal();
+        } else if (localY == 15) {
+            cube.edges |= 1 << EnumFacing.UP.ordinal();
+        }
+        if (localZ == 0) {
+            cube.edges |= 1 << EnumFacing.NORTH.ordinal();
+        } else if (localZ == 15) {
+            cube.edges |= 1 << EnumFacing.SOUTH.ordinal();
+        }
+    }
+
+    private static final class Job {
+
+        final Cube cube;
+        final boolean[] columns;
+
+        Job(Cube cube, boolean[] columns) {
+            this.cube = cube;
+            this.columns = columns;
+        }
+    }
+
+    private final class CubeSnapshot implements XYZAddressable {
+
+        final Cube cube;
+        final int x, y, z;
+        final byte[] opacity;
+        final NibbleArray originalLight;
+        final NibbleArray light;
+        @Nullable BitSet changed;
+        // EnumFacing bitmask of edges that need sky light update
+        int edges;
+
+        CubeSnapshot(Cube cube) {
+            this.cube = cube;
+            this.x = cube.getX();
+            this.y = cube.getY();
+            this.z = cube.getZ();
+
+            ExtendedBlockStorage ebs = cube.getStorage();
+            if (ebs == null || ebs.isEmpty()) {
+                this.opacity = NO_OPACITY;
+            } else {
+                this.opacity = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+                BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+                for (int i = 0; i < opacity.length; i++) {
+                    int localX = i & 15, localZ = i >> 4 & 15, localY = i >> 8;
+                    pos.setPos(localToBlock(x, localX), localToBlock(y, localY), localToBlock(z, localZ));
+                    opacity[i] = (byte) ebs.get(localX, localY, localZ).getLightOpacity(world, pos);
+                }
+            }
+            NibbleArray skyLight = ebs == null ? null : ebs.getSkyLight();
+            this.originalLight = skyLight == null ? new NibbleArray() : new NibbleArray(skyLight.getData().clone());
+            this.light = new NibbleArray(originalLight.getData().clone());
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+
+    private static final class ColumnSnapshot implements XZAddressable {
+
+        final int x, z;
+        final int[] heights = new int[Cube.SIZE * Cube.SIZE];
+
+        ColumnSnapshot(Chunk column) {
+            this.x = column.x;
+            this.z = column.z;
+            for (int localX = 0; localX < Cube.SIZE; localX++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    heights[localX << 4 | localZ] = ((IColumnInternal) column).getHeightWithStaging(localX, localZ);
+                }
+            }
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
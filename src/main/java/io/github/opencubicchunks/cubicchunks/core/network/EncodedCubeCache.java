@@ -0,0 +1,61 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encoded cube data shared between all packets sent in one tick, so that a cube sent to many players at once is only
+ * encoded once. Encoded data isn't updated when cubes change, so the cache must be cleared before the world can be
+ * modified again.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class EncodedCubeCache {
+
+    private final Map<Cube, byte[]> encodedCubes = new IdentityHashMap<>();
+
+    byte[] getEncodedCube(Cube cube) {
+        return encodedCubes.computeIfAbsent(cube, WorldEncoder::encodeCube);
+    }
+
+    /**
+     * Returns the size of the encoded block, light and biome data of the given cube. Heightmaps and tile entities are
+     * not included.
+     */
+    public int getEncodedSize(Cube cube) {
+        return getEncodedCube(cube).length;
+    }
+
+    public void clear() {
+        encodedCubes.clear();
+    }
+}
@@ -38,11 +38,13 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
@@ -61,7 +63,19 @@ public class PacketCubes implements IMessage {
     public PacketCubes() {
     }
 
-    public PacketCubes(List<Cube> cubes) {
+    /**
+     * @return size of the data of one column heightmap sent in this packet
+     */
+    public static int getEncodedHeightMapSize() {
+        return WorldEncoder.getEncodedHeightMapSize();
+    }
+
+    /**
+     * @param cubes the cubes to send
+     * @param heightMapColumns columns to send the heightmap of. Each of them must contain one of the sent cubes.
+     * @param cache cache of encoded cube data
+     */
+    public PacketCubes(List<Cube> cubes, Collection<Chunk> heightMapColumns, EncodedCubeCache cache) {
         cubes.sort(Comparator.<Cube>comparingInt(c -> c.getCoords().getY())
                 .thenComparingInt(c -> c.getCoords().getX())
                 .thenComparingInt(c -> c.getCoords().getZ()));
@@ -69,10 +83,14 @@ public class PacketCubes implements IMessage {
         for (int i = 0; i < cubes.size(); i++) {
             cubePos[i] = cubes.get(i).getCoords();
         }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
+        List<byte[]> encodedCubes = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            encodedCubes.add(cache.getEncodedCube(cube));
+        }
+        this.data = new byte[WorldEncoder.getEncodedSize(encodedCubes, heightMapColumns)];
         PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
 
-        WorldEncoder.encodeCubes(out, cubes);
+        WorldEncoder.encodeCubes(out, encodedCubes, heightMapColumns);
 
         this.tileEntityTags = new ArrayList<>();
 
@@ -152,7 +170,7 @@ public class PacketCubes implements IMessage {
 
             byte[] data = message.getData();
             ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes);
+            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes, worldClient.provider.hasSkyLight());
 
             cubes.stream().filter(Objects::nonNull).forEach(Cube::markForRenderUpdate);
 
@@ -25,12 +25,18 @@
 package io.github.opencubicchunks.cubicchunks.core.network;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.util.BlockStorageUtils;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -39,66 +45,98 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
-        // write first all the flags, then all the block data, then all the light data etc for better compression
+    private static final int HEIGHTMAP_SIZE = Cube.SIZE * Cube.SIZE * Integer.BYTES;
 
-        // 1. emptiness
-        cubes.forEach(cube -> {
+    /**
+     * Writes the cubes encoded with {@link #encodeCube(Cube)}, followed by the heightmaps of the given columns.
+     *
+     * @param out the buffer to write to
+     * @param encodedCubes data of each cube
+     * @param heightMapColumns columns to send heightmaps of, each of them must contain one of the sent cubes
+     */
+    static void encodeCubes(PacketBuffer out, List<byte[]> encodedCubes, Collection<Chunk> heightMapColumns) {
+        // 1. block, light and biome data
+        encodedCubes.forEach(out::writeBytes);
+
+        // 2. heightmap and bottom-block-y, at most once for each column
+        out.writeVarInt(heightMapColumns.size());
+        heightMapColumns.forEach(column -> {
+            out.writeInt(column.x);
+            out.writeInt(column.z);
+            ((ServerHeightMap) ((IColumn) column).getOpacityIndex()).writeDataForClient(out);
+        });
+    }
+
+    /**
+     * Encodes the data of a single cube that doesn't depend on other cubes or the column: flags, block IDs and
+     * metadata, block and sky light, and biomes. The result only stays valid until the cube is modified.
+     *
+     * @param cube the cube
+     * @return the encoded data
+     */
+    static byte[] encodeCube(Cube cube) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            PacketBuffer out = new PacketBuffer(buf);
+            ExtendedBlockStorage storage = cube.getStorage();
+            IBlockState uniformState = getUniformBlockState(cube);
+            int uniformLight = getUniformLight(cube);
+
+            // 1. emptiness
             byte flags = 0;
             if(cube.isEmpty())
                 flags |= 1;
-            if(cube.getStorage() != null)
+            if(storage != null)
                 flags |= 2;
             if(cube.getBiomeArray() != null)
                 flags |= 4;
+            if(uniformState != null)
+                flags |= 8;
+            if(uniformLight >= 0)
+                flags |= 16;
             out.writeByte(flags);
-        });
 
-        // 2. block IDs and metadata
-        cubes.forEach(cube -> {
+            // 2. block IDs and metadata
             if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
+                if (uniformState != null) {
+                    //noinspection deprecation
+                    out.writeVarInt(Block.BLOCK_STATE_IDS.get(uniformState));
+                } else {
+                    //noinspection ConstantConditions
+                    storage.getData().write(out);
+                }
             }
-        });
 
-        // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
+            // 3. block and sky light, packed in one byte if they are the same everywhere
+            if (storage != null) {
+                if (uniformLight >= 0) {
+                    out.writeByte(uniformLight);
+                } else {
+                    out.writeBytes(storage.getBlockLight().getData());
+                    if (cube.getWorld().provider.hasSkyLight()) {
+                        out.writeBytes(storage.getSkyLight().getData());
+                    }
+                }
             }
-        });
 
-        // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
+            // 4. biomes
+            if (cube.getBiomeArray() != null) {
+                out.writeBytes(cube.getBiomeArray());
             }
-        });
 
-        // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
-        // to update this data.
-        // trying to keep track of when it changes would be complex, so send
-        // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-                assert heightmaps.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
-                out.writeBytes(heightmaps);
-            }
-        });
-        
-        // 6. biomes
-        cubes.forEach(cube -> {
-            if (cube.getBiomeArray() != null)
-                out.writeBytes(cube.getBiomeArray());
-        });
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return data;
+        } finally {
+            buf.release();
+        }
     }
 
     static void encodeColumn(PacketBuffer out, Chunk column) {
@@ -111,115 +149,152 @@ class WorldEncoder {
         in.readBytes(column.getBiomeArray());
     }
 
-    static void decodeCube(PacketBuffer in, List<Cube> cubes) {
+    static void decodeCube(PacketBuffer in, List<Cube> cubes, boolean hasSkyLight) {
         cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
 
-        // 1. emptiness
         boolean[] isEmpty = new boolean[cubes.size()];
-        boolean[] hasStorage = new boolean[cubes.size()];
-        boolean[] hasCustomBiomeMap = new boolean[cubes.size()];
 
+        // 1. block, light and biome data
         for (int i = 0; i < cubes.size(); i++) {
-            byte flags = in.readByte();
-            isEmpty[i] = (flags & 1) != 0 || cubes.get(i) == null;
-            hasStorage[i] = (flags & 2) != 0 && cubes.get(i) != null;
-            hasCustomBiomeMap[i] = (flags & 4) != 0 && cubes.get(i) != null;
+            isEmpty[i] = decodeCube(in, cubes.get(i), hasSkyLight);
         }
 
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                Cube cube = cubes.get(i);
-                ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                        cube.getWorld().provider.hasSkyLight());
-                cube.setStorage(storage);
+        // 2. heightmaps
+        int columnCount = in.readVarInt();
+        for (int i = 0; i < columnCount; i++) {
+            int columnX = in.readInt();
+            int columnZ = in.readInt();
+            Chunk column = null;
+            for (Cube cube : cubes) {
+                if (cube != null && cube.getX() == columnX && cube.getZ() == columnZ) {
+                    column = cube.getColumn();
+                    break;
+                }
+            }
+            if (column == null) {
+                in.skipBytes(HEIGHTMAP_SIZE);
+                continue;
             }
+            ((ClientHeightMap) ((IColumn) column).getOpacityIndex()).setData(in);
         }
 
-        // 2. Block IDs and metadata
+        // after all that - update ref counts
         for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
+            if (!isEmpty[i] && cubes.get(i) != null) {
                 //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
+                cubes.get(i).getStorage().recalculateRefCounts();
             }
         }
+    }
 
-        // 3. block light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
+    /**
+     * Reads data written by {@link #encodeCube(Cube)}.
+     *
+     * @param hasSkyLight whether the world has sky light, the encoder writes sky light only when it does
+     *
+     * @return true if the cube was empty when it was encoded
+     */
+    private static boolean decodeCube(PacketBuffer in, @Nullable Cube cube, boolean hasSkyLight) {
+        byte flags = in.readByte();
+        boolean isEmpty = (flags & 1) != 0;
+        boolean hasStorage = (flags & 2) != 0;
+        boolean hasCustomBiomeMap = (flags & 4) != 0;
+        boolean hasUniformBlocks = (flags & 8) != 0;
+        boolean hasUniformLight = (flags & 16) != 0;
+        // a null cube is still encoded, so it has to be read anyway
+        ExtendedBlockStorage storage = null;
+        if (hasStorage) {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube == null ? 0 : cube.getY()), hasSkyLight);
+            if (cube != null) {
+                cube.setStorage(storage);
             }
         }
 
-        // 4. sky light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i] && cubes.get(i).getWorld().provider.hasSkyLight()) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
+        // 2. Block IDs and metadata
+        if (!isEmpty) {
+            assert storage != null;
+            if (hasUniformBlocks) {
+                //noinspection deprecation
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+                BlockStorageUtils.fill(storage, state == null ? Blocks.AIR.getDefaultState() : state);
+            } else {
+                storage.getData().read(in);
             }
         }
 
-        // 5. heightmaps and after all that - update ref counts
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
-                byte[] heightmaps = new byte[Cube.SIZE * Cube.SIZE * Integer.BYTES];
-                in.readBytes(heightmaps);
-                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-                coi.setData(heightmaps);
-
-                //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
+        // 3. block and sky light
+        if (storage != null) {
+            if (hasUniformLight) {
+                int light = in.readUnsignedByte();
+                BlockStorageUtils.fill(storage.getBlockLight(), light & 0xF);
+                if (hasSkyLight) {
+                    BlockStorageUtils.fill(storage.getSkyLight(), light >> 4);
+                }
+            } else {
+                in.readBytes(storage.getBlockLight().getData());
+                if (hasSkyLight) {
+                    in.readBytes(storage.getSkyLight().getData());
+                }
             }
         }
-        
-        // 6. biomes
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!hasCustomBiomeMap[i])
-                continue;
-            Cube cube = cubes.get(i);
+
+        // 4. biomes
+        if (hasCustomBiomeMap) {
             byte[] blockBiomeArray = new byte[Coords.BIOMES_PER_CUBE];
             in.readBytes(blockBiomeArray);
-            cube.setBiomeArray(blockBiomeArray);
+            if (cube != null) {
+                cube.setBiomeArray(blockBiomeArray);
+            }
         }
+        return isEmpty;
     }
 
     static int getEncodedSize(Chunk column) {
         return column.getBiomeArray().length;
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
+    /**
+     * @return size of the data written by {@link #encodeCubes(PacketBuffer, List, Collection)}
+     */
+    static int getEncodedSize(List<byte[]> encodedCubes, Collection<Chunk> heightMapColumns) {
         int size = 0;
+        for (byte[] encodedCube : encodedCubes) {
+            size += encodedCube.length;
+        }
+        return size + PacketBuffer.getVarIntSize(heightMapColumns.size()) + heightMapColumns.size() * getEncodedHeightMapSize();
+    }
 
-        // 1. isEmpty, hasStorage and hasBiomeArray flags packed in one byte
-        size += cubes.size();
+    /**
+     * @return size of the data written for each heightmap by {@link #encodeCubes(PacketBuffer, List, Collection)}
+     */
+    static int getEncodedHeightMapSize() {
+        return Integer.BYTES * 2 + HEIGHTMAP_SIZE;
+    }
 
-        // 2. block IDs and metadata
-        for (Cube cube : cubes) {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
-            }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
-                }
-            }
+    @Nullable
+    private static IBlockState getUniformBlockState(Cube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null || storage.isEmpty()) {
+            return null;
         }
+        return BlockStorageUtils.getUniformBlockState(storage);
+    }
 
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
-        // biomes
-        for (Cube cube : cubes) {
-            byte[] biomeArray = cube.getBiomeArray();
-            if (biomeArray == null)
-                continue;
-            size += biomeArray.length;
+    /**
+     * Returns block light in the low 4 bits and sky light in the high 4 bits if both are the same in the whole cube,
+     * -1 otherwise
+     */
+    private static int getUniformLight(Cube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null) {
+            return -1;
+        }
+        int blockLight = BlockStorageUtils.getUniformLight(storage.getBlockLight());
+        if (blockLight < 0 || !cube.getWorld().provider.hasSkyLight()) {
+            return blockLight;
         }
-        return size;
+        int skyLight = BlockStorageUtils.getUniformLight(storage.getSkyLight());
+        return skyLight < 0 ? -1 : blockLight | skyLight << 4;
     }
 
     static ByteBuf createByteBufForWrite(byte[] data) {
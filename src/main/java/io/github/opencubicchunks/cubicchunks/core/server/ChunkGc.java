@@ -24,19 +24,35 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server;
 
+import com.google.common.collect.ImmutableSetMultimap;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.ForgeChunkManager;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Instead of checking all loaded cubes and columns, only unload candidates are checked. A cube becomes a candidate
+ * when it's loaded without tickets or when it's last ticket is removed, and stops being one when a ticket is added.
+ * A column becomes a candidate when it's loaded or when it's last cube is unloaded. Candidates are unloaded in the
+ * order they were added, once they have been candidates for {@link CubicChunksConfig#chunkGCInterval} ticks, and
+ * spending at most {@link CubicChunksConfig#chunkGCTimeLimitMillis} each tick. Cubes next to a player are never
+ * unloaded, see {@link #unloadCandidates(long)}.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
@@ -44,6 +60,10 @@ public class ChunkGc {
 
     private final CubeProviderServer cubeCache;
 
+    // candidate -> tick at which it became a candidate, in insertion order
+    private final Object2IntLinkedOpenHashMap<Cube> cubeCandidates = new Object2IntLinkedOpenHashMap<>();
+    private final Object2IntLinkedOpenHashMap<Chunk> columnCandidates = new Object2IntLinkedOpenHashMap<>();
+
     private int tick = 0;
 
     public ChunkGc(CubeProviderServer cubeCache) {
@@ -53,10 +73,8 @@ public class ChunkGc {
     public void tick() {
         cubeCache.world.profiler.startSection("chunkGc");
         tick++;
-        if (tick > CubicChunksConfig.chunkGCInterval) {
-            tick = 0;
-            chunkGc();
-        }
+        long stopTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.chunkGCTimeLimitMillis);
+        unloadCandidates(stopTime);
         if (CubicChunks.DEBUG_ENABLED) {
             verifyColumnConsistency();
         }
@@ -97,6 +115,103 @@ public class ChunkGc {
         }
     }
 
+    /**
+     * Marks the cube as possibly unused. Called when the cube is loaded without tickets, or when it's last ticket is
+     * removed.
+     *
+     * @param cube the cube
+     */
+    public void addUnloadCandidate(Cube cube) {
+        if (!cubeCandidates.containsKey(cube)) {
+            cubeCandidates.put(cube, tick);
+        }
+    }
+
+    /**
+     * Marks the cube as used again. Called when a ticket is added to the cube.
+     *
+     * @param cube the cube
+     */
+    public void removeUnloadCandidate(Cube cube) {
+        cubeCandidates.removeInt(cube);
+    }
+
+    void addUnloadCandidate(Chunk column) {
+        if (!columnCandidates.containsKey(column)) {
+            columnCandidates.put(column, tick);
+        }
+    }
+
+    void removeUnloadCandidate(Chunk column) {
+        columnCandidates.removeInt(column);
+    }
+
+    private void unloadCandidates(long stopTime) {
+        ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks = ForgeChunkManager.getPersistentChunksFor(cubeCache.world);
+        // PlayerCubeMap creates watchers for a teleported player only after ChunkGc runs in that tick, so the cube the
+        // player is in can still be a candidate without tickets. Unloading it breaks a lot of things, so keep cubes
+        // around players regardless of tickets
+        List<CubePos> playerCubes = new ArrayList<>(cubeCache.world.playerEntities.size());
+        for (EntityPlayer player : cubeCache.world.playerEntities) {
+            playerCubes.add(CubePos.fromEntity(player));
+        }
+
+        // candidates that can't be unloaded yet are added back at the end, don't check them again in the same tick
+        int toCheck = cubeCandidates.size();
+        while (toCheck > 0 && !cubeCandidates.isEmpty() && System.nanoTime() < stopTime) {
+            Cube cube = cubeCandidates.firstKey();
+            if (tick - cubeCandidates.getInt(cube) < CubicChunksConfig.chunkGCInterval) {
+                break; // all the following candidates are newer
+            }
+            cubeCandidates.removeFirstInt();
+            toCheck--;
+            if (!cube.isCubeLoaded() || !cube.getTickets().canUnload()) {
+                continue; // already unloaded, or it will be added back when the tickets are removed
+            }
+            if (isNearPlayer(cube.getCoords(), playerCubes)) {
+                cubeCandidates.put(cube, tick);
+                continue;
+            }
+            if (cubeCache.tryUnloadCube(cube, persistentChunks)) {
+                cubeCache.removeUnloadedCube(cube);
+            } else {
+                cubeCandidates.put(cube, tick);
+            }
+        }
+
+        toCheck = columnCandidates.size();
+        while (toCheck > 0 && !columnCandidates.isEmpty() && System.nanoTime() < stopTime) {
+            Chunk column = columnCandidates.firstKey();
+            if (tick - columnCandidates.getInt(column) < CubicChunksConfig.chunkGCInterval) {
+                break;
+            }
+            columnCandidates.removeFirstInt();
+            toCheck--;
+            if (!column.isLoaded() || ((IColumn) column).hasLoadedCubes()) {
+                continue; // already unloaded, or it will be added back when the last cube is unloaded
+            }
+            if (cubeCache.tryUnloadColumn(column, persistentChunks)) {
+                cubeCache.removeUnloadedColumn(column);
+            } else {
+                columnCandidates.put(column, tick);
+            }
+        }
+    }
+
+    private static boolean isNearPlayer(CubePos pos, List<CubePos> playerCubes) {
+        for (CubePos playerPos : playerCubes) {
+            if (Math.abs(playerPos.getX() - pos.getX()) <= 1
+                    && Math.abs(playerPos.getY() - pos.getY()) <= 1
+                    && Math.abs(playerPos.getZ() - pos.getZ()) <= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attempts to unload all loaded cubes and columns at once, ignoring the unload candidates and time limit.
+     */
     public void chunkGc() {
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
         while (cubeIt.hasNext()) {
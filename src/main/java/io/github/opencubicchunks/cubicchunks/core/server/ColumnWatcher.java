@@ -115,6 +115,10 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         if (this.isSentToPlayers()) {
             if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
                 PacketDispatcher.sendTo(new PacketUnloadColumn(getPos()), player);
+                PlayerCubeSendQueue sendQueue = playerCubeMap.getCubeSendQueue(player);
+                if (sendQueue != null) {
+                    sendQueue.onColumnUnloaded(getPos());
+                }
             } else {
                 playerCubeMap.vanillaNetworkHandler.sendColumnUnloadPacket(getPos(), player);
             }
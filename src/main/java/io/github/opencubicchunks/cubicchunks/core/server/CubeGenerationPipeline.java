@@ -0,0 +1,228 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs the terrain stage of cube generation ({@link ICubeGenerator#generateCube(int, int, int, CubePrimer)}) on worker
+ * threads. Only the primers are produced off-thread, creating the {@link io.github.opencubicchunks.cubicchunks.core.world.cube.Cube}
+ * from them and adding it to the world is still done on the server thread by {@link CubeProviderServer}.
+ * <p>
+ * Primers are recycled, so the amount of primers alive at once is bounded by the amount of queued tasks.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeGenerationPipeline {
+
+    private static final int QUEUED_TASKS_PER_THREAD = 16;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    // shared between all worlds, created when the first world that can use it is loaded
+    @Nullable private static ThreadPoolExecutor workers;
+
+    private final ICubeGenerator generator;
+    private final Map<CubePos, Task> tasks = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<CubePrimer> freePrimers = new ConcurrentLinkedQueue<>();
+
+    CubeGenerationPipeline(ICubeGenerator generator) {
+        this.generator = generator;
+    }
+
+    static boolean canUse(ICubeGenerator generator) {
+        return generator.supportsConcurrentCubeGeneration();
+    }
+
+    boolean isEnabled() {
+        return CubicChunksConfig.parallelCubeGeneration;
+    }
+
+    /**
+     * Queues generation of the cube at the given position, unless it's already queued.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     *
+     * @return true if the cube is being generated by a worker thread and the caller should wait for it, false if the
+     * result is ready to be taken with {@link #take(int, int, int)}, or if the cube should be generated synchronously
+     */
+    boolean scheduleOrCheckPending(int cubeX, int cubeY, int cubeZ) {
+        Task task = tasks.get(new CubePos(cubeX, cubeY, cubeZ));
+        if (task != null) {
+            return !task.finished;
+        }
+        ThreadPoolExecutor executor = executor();
+        if (tasks.size() >= executor.getCorePoolSize() * QUEUED_TASKS_PER_THREAD) {
+            return true; // wait for the queued work to finish first
+        }
+        task = new Task(cubeX, cubeY, cubeZ);
+        tasks.put(task.pos, task);
+        executor.execute(task);
+        return true;
+    }
+
+    /**
+     * Takes the result of cube generation queued at the given position. If the task is still running, this waits for it to
+     * finish. If it hasn't been started yet, it's removed from the queue and null is returned.
+     * <p>
+     * The returned task must be {@link Task#recycle() recycled} once the cube has been created from it.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     *
+     * @return the finished task, or null if the cube should be generated synchronously
+     */
+    @Nullable
+    Task take(int cubeX, int cubeY, int cubeZ) {
+        Task task = tasks.remove(new CubePos(cubeX, cubeY, cubeZ));
+        if (task == null) {
+            return null;
+        }
+        if (executor().remove(task)) {
+            freePrimers.offer(task.primer);
+            return null; // not started yet, faster to generate it directly
+        }
+        task.await();
+        if (task.result == null) {
+            task.recycle();
+            return null; // failed, generating it again on the server thread will report the error properly
+        }
+        return task;
+    }
+
+    /**
+     * Drops queued generation of the cube at the given position, if there is any.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     */
+    void cancel(int cubeX, int cubeY, int cubeZ) {
+        Task task = tasks.remove(new CubePos(cubeX, cubeY, cubeZ));
+        if (task == null) {
+            return;
+        }
+        if (executor().remove(task)) {
+            freePrimers.offer(task.primer);
+            return;
+        }
+        synchronized (task) {
+            if (task.finished) {
+                task.recycle();
+            } else {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (workers == null) {
+            int threads = CubicChunksConfig.cubeGenerationThreads;
+            if (threads <= 0) {
+                threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            }
+            workers = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "Cube Generation Thread #" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return workers;
+    }
+
+    class Task implements Runnable {
+
+        private final CubePos pos;
+        private final CubePrimer primer;
+        @Nullable private CubePrimer result;
+        private volatile boolean finished;
+        private boolean cancelled;
+
+        Task(int cubeX, int cubeY, int cubeZ) {
+            this.pos = new CubePos(cubeX, cubeY, cubeZ);
+            CubePrimer primer = freePrimers.poll();
+            this.primer = primer == null ? new CubePrimer() : primer;
+        }
+
+        @Override public void run() {
+            try {
+                result = generator.generateCube(pos.getX(), pos.getY(), pos.getZ(), primer);
+            } catch (Throwable t) {
+                CubicChunks.LOGGER.error("Error generating cube at {} on worker thread", pos, t);
+            } finally {
+                synchronized (this) {
+                    this.finished = true;
+                    if (cancelled) {
+                        recycle();
+                    }
+                    this.notifyAll();
+                }
+            }
+        }
+
+        private synchronized void await() {
+            while (!finished) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Failed to wait for cube generation", e);
+                }
+            }
+        }
+
+        CubePrimer getPrimer() {
+            assert result != null;
+            return result;
+        }
+
+        /**
+         * Returns the primer used by this task to the pool.
+         */
+        void recycle() {
+            primer.reset();
+            freePrimers.offer(primer);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer.Requirement;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.fml.common.registry.GameRegistry;
+
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Brings cubes to {@link Requirement#POPULATE} and {@link Requirement#LIGHT} without recursively requesting them.
+ * <p>
+ * Each stage of a cube only depends on its neighbors reaching an earlier stage:
+ * <ul>
+ *     <li>populating a cube requires all cubes in {@link ICubeGenerator#getPopulationPregenerationRequirements(ICube)}
+ *     to be generated</li>
+ *     <li>full population requires all cubes in {@link ICubeGenerator#getFullPopulationRequirements(ICube)} to be
+ *     populated</li>
+ *     <li>initial lighting requires all the neighbors to be generated</li>
+ * </ul>
+ * After each expensive step (loading or generating a cube, populating a cube) the stop condition is checked, so the work
+ * can be split across ticks. Progress is stored in the cubes themselves, so calling
+ * {@link #advance(int, int, int, Requirement, BooleanSupplier)} again continues where the previous call stopped.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubePopulationScheduler {
+
+    static final BooleanSupplier NEVER_STOP = () -> false;
+
+    private final CubeProviderServer provider;
+    private final ICubeGenerator cubeGen;
+    private final WorldServer world;
+
+    CubePopulationScheduler(CubeProviderServer provider, ICubeGenerator cubeGen, WorldServer world) {
+        this.provider = provider;
+        this.cubeGen = cubeGen;
+        this.world = world;
+    }
+
+    /**
+     * Generates the cube at the given position if needed, and then advances it towards the given requirement.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @param req the requirement the cube should reach
+     * @param shouldStop checked after each expensive step, returns true when there is no more time left
+     *
+     * @return true if the cube reached the requirement, false if there is work left
+     */
+    boolean advance(int cubeX, int cubeY, int cubeZ, Requirement req, BooleanSupplier shouldStop) {
+        Cube cube = generate(cubeX, cubeY, cubeZ, shouldStop);
+        return cube != null && advance(cube, req, shouldStop);
+    }
+
+    /**
+     * Advances the cube towards the given requirement.
+     *
+     * @param cube the cube
+     * @param req the requirement the cube should reach
+     * @param shouldStop checked after each expensive step, returns true when there is no more time left
+     *
+     * @return true if the cube reached the requirement, false if there is work left
+     */
+    boolean advance(Cube cube, Requirement req, BooleanSupplier shouldStop) {
+        if (Stage.of(cube).reaches(req)) {
+            return true;
+        }
+        if (!cube.isFullyPopulated() && !populateFully(cube, shouldStop)) {
+            return false;
+        }
+        return req != Requirement.LIGHT || light(cube, shouldStop);
+    }
+
+    private boolean populateFully(Cube cube, BooleanSupplier shouldStop) {
+        int cubeX = cube.getX();
+        int cubeY = cube.getY();
+        int cubeZ = cube.getZ();
+
+        Box fullPopulation = withVanillaGeneratorRange(cubeGen.getFullPopulationRequirements(cube), cubeY);
+        boolean done = fullPopulation.allMatch((x, y, z) -> {
+            Cube toPopulate = generate(cubeX + x, cubeY + y, cubeZ + z, shouldStop);
+            return toPopulate != null && populate(toPopulate, shouldStop);
+        });
+        if (!done) {
+            return false;
+        }
+        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
+            Box.Mutable box = fullPopulation.asMutable();
+            box.setY1(0);
+            box.setY2(0);
+            box.forEachPoint((x, y, z) ->
+                    GameRegistry.generateWorld(cubeX + x, cubeZ + z, world, provider.chunkGenerator, world.getChunkProvider()));
+        }
+        cube.setFullyPopulated(true);
+        return true;
+    }
+
+    private boolean populate(Cube cube, BooleanSupplier shouldStop) {
+        if (cube.isPopulated()) {
+            return true;
+        }
+        int cubeX = cube.getX();
+        int cubeY = cube.getY();
+        int cubeZ = cube.getZ();
+
+        Box pregeneration = withVanillaGeneratorRange(cubeGen.getPopulationPregenerationRequirements(cube), cubeY);
+        if (!pregeneration.allMatch((x, y, z) -> generate(cubeX + x, cubeY + y, cubeZ + z, shouldStop) != null)) {
+            return false;
+        }
+        // a check for populators that populate more than one cube (vanilla compatibility generator)
+        if (!cube.isPopulated()) {
+            cubeGen.populate(cube);
+            cube.setPopulated(true);
+        }
+        return !shouldStop.getAsBoolean();
+    }
+
+    private boolean light(Cube cube, BooleanSupplier shouldStop) {
+        if (!cube.isInitialLightingDone() || !cube.isSurfaceTracked()) {
+            if (!LightingManager.NO_SUNLIGHT_PROPAGATION) {
+                int cubeX = cube.getX();
+                int cubeY = cube.getY();
+                int cubeZ = cube.getZ();
+                // TODO: remove this loop; Does it break anything?
+                for (int x = -1; x <= 1; x++) {
+                    for (int z = -1; z <= 1; z++) {
+                        for (int y = 1; y >= -1; y--) {
+                            if ((x != 0 || y != 0 || z != 0) && generate(x + cubeX, y + cubeY, z + cubeZ, shouldStop) == null) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                ((ICubicWorldInternal.Server) world).getFirstLightProcessor().diffuseSkylight(cube);
+            }
+            cube.setInitialLightingDone(true);
+        }
+        if (!cube.isSurfaceTracked()) {
+            cube.trackSurface();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the cube at the given position, loading or generating it if needed.
+     *
+     * @return the cube, or null if it had to be loaded or generated and there is no time left
+     */
+    @Nullable
+    private Cube generate(int cubeX, int cubeY, int cubeZ, BooleanSupplier shouldStop) {
+        Cube cube = provider.getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        cube = provider.getCube(cubeX, cubeY, cubeZ, Requirement.GENERATE);
+        return shouldStop.getAsBoolean() ? null : cube;
+    }
+
+    private static Box withVanillaGeneratorRange(Box box, int cubeY) {
+        if (CubicChunksConfig.useVanillaChunkWorldGenerators && cubeY >= 0 && cubeY < 16) {
+            return new Box(
+                    0, -cubeY, 0,
+                    0, 16 - cubeY - 1, 0
+            ).add(box);
+        }
+        return box;
+    }
+
+    /**
+     * Generation stage of a loaded cube. Each stage implies all the previous stages.
+     */
+    enum Stage {
+        GENERATED, POPULATED, FULLY_POPULATED, LIT;
+
+        static Stage of(Cube cube) {
+            if (!cube.isFullyPopulated()) {
+                return cube.isPopulated() ? POPULATED : GENERATED;
+            }
+            return cube.isInitialLightingDone() && cube.isSurfaceTracked() ? LIT : FULLY_POPULATED;
+        }
+
+        boolean reaches(Requirement req) {
+            switch (req) {
+                case POPULATE:
+                    return this.compareTo(FULLY_POPULATED) >= 0;
+                case LIGHT:
+                    return this == LIT;
+                default:
+                    return true;
+            }
+        }
+    }
+}
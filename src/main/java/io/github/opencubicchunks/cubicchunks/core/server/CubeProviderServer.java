@@ -24,8 +24,9 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server;
 
+import com.google.common.collect.ImmutableSetMultimap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
-import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.RegionCubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
@@ -33,11 +34,9 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
-import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
-import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -51,7 +50,6 @@ import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraftforge.common.ForgeChunkManager;
-import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -82,13 +80,22 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private WorldServer worldServer;
     @Nonnull private ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // written only from the server thread, but can be read from I/O and worker threads
+    @Nonnull private ConcurrentXYZMap<Cube> cubeMap = new ConcurrentXYZMap<>(0.7f, 8000);
 
     @Nonnull private CubePrimer primer;
     @Nonnull private ICubeGenerator cubeGen;
+    @Nullable private CubeGenerationPipeline generationPipeline;
+    @Nonnull private CubePopulationScheduler populationScheduler;
+    @Nonnull private ChunkGc chunkGc;
     @Nonnull private Profiler profiler;
 
+    // total amount of cubes generated by this provider
+    private long generatedCubes;
+    // cubes loaded and generated on the server thread because of World.getBlockState and World.setBlockState
+    private long syncBlockAccessLoads;
+    private long syncBlockAccessGenerations;
+
     public CubeProviderServer(WorldServer worldServer, ICubeGenerator cubeGen) {
         super(worldServer,
                 worldServer.getSaveHandler().getChunkLoader(worldServer.provider), // forge uses this in
@@ -96,7 +103,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
         this.primer = new CubePrimer();
         this.cubeGen = cubeGen;
+        this.generationPipeline = CubeGenerationPipeline.canUse(cubeGen) ? new CubeGenerationPipeline(cubeGen) : null;
         this.worldServer = worldServer;
+        this.populationScheduler = new CubePopulationScheduler(this, cubeGen, worldServer);
+        this.chunkGc = new ChunkGc(this);
         this.profiler = worldServer.profiler;
         try {
             this.cubeIO = new RegionCubeIO(worldServer);
@@ -260,6 +270,58 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    @Nullable @Override
+    public Cube getCubeForBlockAccess(int cubeX, int cubeY, int cubeZ) {
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        Requirement req = CubicChunksConfig.worldBlockAccessMode.getRequirement();
+        if (req == Requirement.GET_CACHED) {
+            return null;
+        }
+        // avoid loading the column for cubes that don't exist
+        if (req == Requirement.LOAD && !cubeIO.cubeExists(cubeX, cubeY, cubeZ)) {
+            return null;
+        }
+        long generatedBefore = generatedCubes;
+        cube = getCube(cubeX, cubeY, cubeZ, req);
+        if (cube != null) {
+            onSyncBlockAccessLoad(cube, generatedCubes != generatedBefore);
+        }
+        return cube;
+    }
+
+    private void onSyncBlockAccessLoad(Cube cube, boolean generated) {
+        if (generated) {
+            syncBlockAccessGenerations++;
+        } else {
+            syncBlockAccessLoads++;
+        }
+        int interval = CubicChunksConfig.syncBlockAccessStackTraceInterval;
+        if (interval > 0 && (syncBlockAccessLoads + syncBlockAccessGenerations) % interval == 0) {
+            CubicChunks.LOGGER.warn("Cube {} in {} {} on the server thread by block access ({} loaded, {} generated so far)",
+                    cube.getCoords(), worldServer.provider.getDimensionType(), generated ? "generated" : "loaded",
+                    syncBlockAccessLoads, syncBlockAccessGenerations, new Throwable("Block access stack trace"));
+        }
+    }
+
+    /**
+     * @return amount of cubes loaded from disk on the server thread by {@link World#getBlockState(BlockPos)} and
+     * {@link World#setBlockState(BlockPos, net.minecraft.block.state.IBlockState, int)}
+     */
+    public long getSyncBlockAccessLoads() {
+        return syncBlockAccessLoads;
+    }
+
+    /**
+     * @return amount of cubes generated on the server thread by {@link World#getBlockState(BlockPos)} and
+     * {@link World#setBlockState(BlockPos, net.minecraft.block.state.IBlockState, int)}
+     */
+    public long getSyncBlockAccessGenerations() {
+        return syncBlockAccessGenerations;
+    }
+
     /**
      * Load a cube, asynchronously. The work done to retrieve the column is specified by the
      * {@link Requirement} <code>req</code>
@@ -281,14 +343,47 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
 
         if (cube == null) {
-            AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, loaded -> {
+            AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, new CubeLoadCallback(callback, loaded -> {
                 Chunk col = getLoadedColumn(cubeX, cubeZ);
                 if (col != null) {
                     onCubeLoaded(loaded, col);
                     loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, req);
                 }
                 callback.accept(loaded);
-            });
+            }));
+        }
+    }
+
+    /**
+     * Wraps the callback passed to {@link #asyncGetCube(int, int, int, Requirement, Consumer)}, but compares equal to the
+     * original callback, so that the load can be dropped using the callback that was passed in.
+     */
+    private static final class CubeLoadCallback implements Consumer<Cube> {
+
+        private final Consumer<Cube> original;
+        private final Consumer<Cube> wrapped;
+
+        CubeLoadCallback(Consumer<Cube> original, Consumer<Cube> wrapped) {
+            this.original = original;
+            this.wrapped = wrapped;
+        }
+
+        @Override public void accept(Cube cube) {
+            wrapped.accept(cube);
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof CubeLoadCallback) {
+                return original.equals(((CubeLoadCallback) o).original);
+            }
+            return original.equals(o);
+        }
+
+        @Override public int hashCode() {
+            return original.hashCode();
         }
     }
 
@@ -316,6 +411,23 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return postCubeLoadAttempt(cubeX, cubeY, cubeZ, cube, column, req);
     }
 
+    /**
+     * Does work required by <code>req</code> on the cube at the specified position, but unlike
+     * {@link #getCube(int, int, int, Requirement)} it returns early once <code>shouldStop</code> returns true. Calling it
+     * again continues the remaining work.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     * @param req Work done on the cube
+     * @param shouldStop Checked after every cube loaded, generated or populated, returns true when there is no time left
+     *
+     * @return true if the cube reached the requirement, false if there is work left
+     */
+    boolean advanceCube(int cubeX, int cubeY, int cubeZ, Requirement req, BooleanSupplier shouldStop) {
+        return populationScheduler.advance(cubeX, cubeY, cubeZ, req, shouldStop);
+    }
+
     @Override public boolean isCubeGenerated(int cubeX, int cubeY, int cubeZ) {
         return getLoadedCube(cubeX, cubeY, cubeZ) != null || cubeIO.cubeExists(cubeX, cubeY, cubeZ);
     }
@@ -336,6 +448,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             if (!((IColumn) column).getLoadedCubes().contains(cube)) {
                 ((IColumn) column).addCube(cube);
                 cube.onLoad(); // init the Cube
+                if (cube.getTickets().canUnload()) {
+                    chunkGc.addUnloadCandidate(cube);
+                }
             }
         }
     }
@@ -375,21 +490,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             }
         }
 
-        if (!cube.isFullyPopulated()) {
-            // forced full population of this cube
-            populateCube(cube);
-            if (req == Requirement.POPULATE) {
-                return cube;
-            }
-        }
-
-        if (!cube.isInitialLightingDone() || !cube.isSurfaceTracked()) {
-            calculateDiffuseSkylight(cube);
-        }
-        if (!cube.isSurfaceTracked()) {
-            cube.trackSurface();
-        }
-
+        populationScheduler.advance(cube, req, CubePopulationScheduler.NEVER_STOP);
         return cube;
     }
 
@@ -405,6 +506,14 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @return The generated cube
      */
     private Cube generateCube(int cubeX, int cubeY, int cubeZ, Chunk column) {
+        generatedCubes++;
+        CubeGenerationPipeline.Task generated = generationPipeline == null ? null : generationPipeline.take(cubeX, cubeY, cubeZ);
+        if (generated != null) {
+            Cube cube = new Cube(column, cubeY, generated.getPrimer());
+            generated.recycle();
+            onCubeLoaded(cube, column);
+            return cube;
+        }
         CubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ, this.primer);
         Cube cube = new Cube(column, cubeY, primer);
 
@@ -420,89 +529,36 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     }
 
     /**
-     * Populate a cube at the specified position, generating surrounding cubes as necessary
+     * When parallel cube generation is enabled, queues generating terrain of the cube at the specified position on a
+     * worker thread. The generated cube is added to the world the next time it's requested with at least
+     * {@link Requirement#GENERATE}.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
      *
-     * @param cube The cube to populate
+     * @return true if the cube is still being generated on a worker thread, false if it can be requested without waiting
      */
-    private void populateCube(Cube cube) {
-        int cubeX = cube.getX();
-        int cubeY = cube.getY();
-        int cubeZ = cube.getZ();
-
-        // for all cubes needed for full population - generate their population requirements
-        Box fullPopulation = cubeGen.getFullPopulationRequirements(cube);
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            if (cube.getY() >= 0 && cube.getY() < 16) {
-                fullPopulation = new Box(
-                        0, -cube.getY(), 0,
-                        0, 16 - cube.getY() - 1, 0
-                ).add(fullPopulation);
-            }
-        }
-        fullPopulation.forEachPoint((x, y, z) -> {
-            // this also generates the cube
-            Cube fullPopulationCube = getCube(x + cubeX, y + cubeY, z + cubeZ);
-            Box newBox = cubeGen.getPopulationPregenerationRequirements(fullPopulationCube);
-            if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-                if (cube.getY() >= 0 && cube.getY() < 16) {
-                    newBox = new Box(
-                            0, -cube.getY(), 0,
-                            0, 16 - cube.getY() - 1, 0
-                    ).add(newBox);
-                }
-            }
-            newBox.forEachPoint((nx, ny, nz) -> {
-                int genX = cubeX + x + nx;
-                int genY = cubeY + y + ny;
-                int genZ = cubeZ + z + nz;
-                getCube(genX, genY, genZ);
-            });
-            // a check for populators that populate more than one cube (vanilla compatibility generator)
-            if (!fullPopulationCube.isPopulated()) {
-                cubeGen.populate(fullPopulationCube);
-                fullPopulationCube.setPopulated(true);
-            }
-        });
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            Box.Mutable box = fullPopulation.asMutable();
-            box.setY1(0);
-            box.setY2(0);
-            box.forEachPoint((x, y, z) -> {
-                GameRegistry.generateWorld(cube.getX() + x, cube.getZ() + z, world, chunkGenerator, world.getChunkProvider());
-            });
+    boolean isGeneratingAsync(int cubeX, int cubeY, int cubeZ) {
+        if (generationPipeline == null || !generationPipeline.isEnabled() || getLoadedCube(cubeX, cubeY, cubeZ) != null) {
+            return false;
         }
-        cube.setFullyPopulated(true);
+        return generationPipeline.scheduleOrCheckPending(cubeX, cubeY, cubeZ);
     }
 
     /**
-     * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
+     * Drops queued asynchronous generation of the cube at the specified position, if there is any.
      *
-     * @param cube The cube to light up
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
      */
-    private void calculateDiffuseSkylight(Cube cube) {
-        if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
-            cube.setInitialLightingDone(true);
-            return;
-        }
-        int cubeX = cube.getX();
-        int cubeY = cube.getY();
-        int cubeZ = cube.getZ();
-
-        // TODO: remove this loop; Does it break anything?
-        for (int x = -1; x <= 1; x++) {
-            for (int z = -1; z <= 1; z++) {
-                for (int y = 1; y >= -1; y--) {
-                    if (x != 0 || y != 0 || z != 0) {
-                        getCube(x + cubeX, y + cubeY, z + cubeZ);
-                    }
-                }
-            }
+    void cancelAsyncGeneration(int cubeX, int cubeY, int cubeZ) {
+        if (generationPipeline != null) {
+            generationPipeline.cancel(cubeX, cubeY, cubeZ);
         }
-        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
-        cube.setInitialLightingDone(true);
     }
 
-
     /**
      * Retrieve a column, asynchronously. The work done to retrieve the column is specified by the
      * {@link Requirement} <code>req</code>
@@ -564,6 +620,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             loadedChunks.put(ChunkPos.asLong(columnX, columnZ), column);
             column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
             column.onLoad();
+            chunkGc.addUnloadCandidate(column);
             return column;
         } else if (req == Requirement.LOAD) {
             return null;
@@ -575,6 +632,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         loadedChunks.put(ChunkPos.asLong(columnX, columnZ), column);
         column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
         column.onLoad();
+        chunkGc.addUnloadCandidate(column);
         return column;
     }
 
@@ -616,8 +674,16 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return loadedChunks.values().iterator();
     }
 
+    public ChunkGc getChunkGc() {
+        return chunkGc;
+    }
+
     boolean tryUnloadCube(Cube cube) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(cube.getColumn().getPos())) {
+        return tryUnloadCube(cube, ForgeChunkManager.getPersistentChunksFor(world));
+    }
+
+    boolean tryUnloadCube(Cube cube, ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks) {
+        if (persistentChunks.containsKey(cube.getColumn().getPos())) {
             return false; // it will be unloaded later by ChunkGC
         }
         if (!cube.getTickets().canUnload()) {
@@ -634,11 +700,26 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
         }
+        chunkGc.removeUnloadCandidate(cube);
+        if (!cube.getColumn().hasLoadedCubes()) {
+            chunkGc.addUnloadCandidate((Chunk) cube.getColumn());
+        }
         return true;
     }
 
+    /**
+     * Removes a cube unloaded by {@link #tryUnloadCube(Cube)} from the lookup table
+     */
+    void removeUnloadedCube(Cube cube) {
+        cubeMap.remove(cube);
+    }
+
     boolean tryUnloadColumn(Chunk column) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(column.getPos())) {
+        return tryUnloadColumn(column, ForgeChunkManager.getPersistentChunksFor(world));
+    }
+
+    boolean tryUnloadColumn(Chunk column, ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks) {
+        if (persistentChunks.containsKey(column.getPos())) {
             return false; // it will be unloaded later by ChunkGC
         }
         if (((IColumn) column).hasLoadedCubes()) {
@@ -661,9 +742,17 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (column.needsSaving(true)) { // save the Column, if it needs saving
             this.cubeIO.saveColumn(column);
         }
+        chunkGc.removeUnloadCandidate(column);
         return true;
     }
 
+    /**
+     * Removes a column unloaded by {@link #tryUnloadColumn(Chunk)} from the lookup table
+     */
+    void removeUnloadedColumn(Chunk column) {
+        loadedChunks.remove(ChunkPos.asLong(column.x, column.z));
+    }
+
     public ICubeGenerator getCubeGenerator() {
         return cubeGen;
     }
@@ -33,7 +33,6 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
-import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
@@ -55,6 +54,7 @@ import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -70,6 +70,8 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     private PlayerCubeMap playerCubeMap;
     @Nullable private Cube cube;
     private final ObjectArrayList<EntityPlayerMP> players = ObjectArrayList.wrap(new EntityPlayerMP[0]);
+    // players the cube data has actually been sent to, cubes can wait in PlayerCubeSendQueue for many ticks after sendToPlayers
+    private final ObjectArrayList<EntityPlayerMP> deliveredTo = ObjectArrayList.wrap(new EntityPlayerMP[0]);
     private final TShortList dirtyBlocks = new TShortArrayList(64);
     private final CubePos cubePos;
     private long previousWorldTime = 0;
@@ -77,6 +79,10 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     private boolean loading = true;
     private boolean invalid = false;
 
+    // maintained by PlayerCubeMap, see PlayerCubeMap#getTickableChunks
+    int playersInTickRange = 0;
+    int tickableIndex = -1;
+
     // CHECKED: 1.10.2-12.18.1.2092
     CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
         this.cubePos = cubePos;
@@ -108,11 +114,11 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             this.previousWorldTime = this.getWorldTime();
         }
         this.players.add(player);
+        playerCubeMap.onPlayerAddedToWatcher(this, player);
 
+        // entities in the cube are sent to the player once the cube is delivered, see #onDelivered
         if (this.sentToPlayers) {
             this.sendToPlayer(player);
-            ((ICubicEntityTracker) playerCubeMap.getWorldServer().getEntityTracker())
-                    .sendLeashedEntitiesInCube(player, this.getCube());
         }
     }
 
@@ -127,6 +133,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         // If we haven't loaded yet don't load the chunk just so we can clean it up
         if (this.cube == null) {
             this.players.remove(player);
+            playerCubeMap.onPlayerRemovedFromWatcher(this, player);
 
             if (this.players.isEmpty()) {
                 playerCubeMap.removeEntry(this);
@@ -135,11 +142,14 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         }
 
         if (this.sentToPlayers) {
-            PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
             playerCubeMap.removeSchedulesSendCubeToPlayer(cube, player);
         }
+        if (this.deliveredTo.remove(player)) {
+            PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
+        }
 
         this.players.remove(player);
+        playerCubeMap.onPlayerRemovedFromWatcher(this, player);
         MinecraftForge.EVENT_BUS.post(new CubeUnWatchEvent(cube, cubePos, this, player));
 
         if (this.players.isEmpty()) {
@@ -151,13 +161,23 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         if (loading) {
             AsyncWorldIOExecutor.dropQueuedCubeLoad(this.playerCubeMap.getWorldServer(),
                     cubePos.getX(), cubePos.getY(), cubePos.getZ(),
-                    c -> this.cube = c);
+                    consumer);
+        } else if (this.cube == null) {
+            cubeCache.cancelAsyncGeneration(cubePos.getX(), cubePos.getY(), cubePos.getZ());
         }
         invalid = true;
     }
 
+    /**
+     * Loads, and if allowed, generates, populates and lights the cube.
+     *
+     * @param canGenerate whether the cube can be generated
+     * @param shouldStop checked after each expensive step of generating the cube, returns true when there is no time left
+     *
+     * @return true if the cube is ready, false if there is work left or the cube is still loading
+     */
     // CHECKED: 1.10.2-12.18.1.2092
-    boolean providePlayerCube(boolean canGenerate) {
+    boolean providePlayerCube(boolean canGenerate, BooleanSupplier shouldStop) {
         if (loading) {
             return false;
         }
@@ -168,15 +188,28 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         int cubeY = cubePos.getY();
         int cubeZ = cubePos.getZ();
 
+        // the cube doesn't exist on disk, let worker threads generate the terrain before populating it here
+        if (canGenerate && this.cube == null && cubeCache.isGeneratingAsync(cubeX, cubeY, cubeZ)) {
+            return false;
+        }
+
         playerCubeMap.getWorldServer().profiler.startSection("getCube");
+        boolean done;
         if (canGenerate) {
-            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LIGHT);
+            done = this.cubeCache.advanceCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LIGHT, shouldStop);
+            this.cube = this.cubeCache.getLoadedCube(cubeX, cubeY, cubeZ);
         } else {
+            done = true;
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LOAD);
         }
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
+        if (!done) {
+            // the rest will be done in the next tick
+            playerCubeMap.getWorldServer().profiler.endSection();
+            return false;
+        }
         playerCubeMap.getWorldServer().profiler.endStartSection("light");
         if (this.cube != null) {
             LightingManager.CubeLightUpdateInfo info = this.cube.getCubeLightUpdateInfo();
@@ -195,6 +228,22 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return sentToPlayers;
     }
 
+    /**
+     * Called by PlayerCubeMap when the cube data leaves the player's send queue
+     */
+    void onDelivered(EntityPlayerMP player) {
+        if (this.players.contains(player) && !this.deliveredTo.contains(player)) {
+            this.deliveredTo.add(player);
+        }
+    }
+
+    /**
+     * @return true if the cube data has been sent to the player, so the client has the cube loaded
+     */
+    boolean isDeliveredTo(EntityPlayerMP player) {
+        return this.deliveredTo.contains(player);
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     SendToPlayersResult sendToPlayers() {
         if (this.sentToPlayers) {
@@ -277,9 +326,9 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             // send whole cube
             this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
         } else {
-            // send all the dirty blocks
+            // send all the dirty blocks, players still waiting for the cube get these changes with the cube data
             PacketCubeBlockChange packet = null;
-            for (EntityPlayerMP player : this.players) {
+            for (EntityPlayerMP player : this.deliveredTo) {
                 if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
                     if (packet == null) { // create packet lazily
                         packet = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
@@ -318,6 +367,24 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return this.players.contains(player);
     }
 
+    void forEachPlayerDeliveredTo(Consumer<EntityPlayerMP> consumer) {
+        for (EntityPlayerMP e : deliveredTo.elements()) {
+            if (e == null) {
+                break;
+            }
+            consumer.accept(e);
+        }
+    }
+
+    void forEachPlayer(Consumer<EntityPlayerMP> consumer) {
+        for (EntityPlayerMP e : players.elements()) {
+            if (e == null) {
+                break;
+            }
+            consumer.accept(e);
+        }
+    }
+
     boolean hasPlayerMatching(Predicate<EntityPlayerMP> predicate) {
         for (EntityPlayerMP e : players.elements()) {
             if (e == null) {
@@ -397,13 +464,16 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     }
 
     private void sendPacketToAllPlayers(Packet<?> packet) {
-        for (EntityPlayerMP entry : this.players) {
+        for (EntityPlayerMP entry : this.deliveredTo) {
             entry.connection.sendPacket(packet);
         }
     }
 
+    /**
+     * Sends the packet to all players the cube has been delivered to
+     */
     @Override public void sendPacketToAllPlayers(IMessage packet) {
-        for (EntityPlayerMP entry : this.players) {
+        for (EntityPlayerMP entry : this.deliveredTo) {
             PacketDispatcher.sendTo(packet, entry);
         }
     }
@@ -32,8 +32,6 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
@@ -47,8 +45,10 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.network.EncodedCubeCache;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
@@ -77,10 +77,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -96,6 +99,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHeightChangeListener {
 
     private static final Predicate<EntityPlayerMP> NOT_SPECTATOR = player -> player != null && !player.isSpectator();
+
+    /**
+     * Cubes are ticked only if a non-spectator player watching them is within this distance, in cubes (128 blocks).
+     * The distance is measured from the cube the player is in, not from the exact player position.
+     */
+    private static final int TICK_RANGE_CUBES = 8;
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
@@ -203,7 +212,12 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private final CubeProviderServer cubeCache;
 
-    private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
+    private final Map<EntityPlayerMP, PlayerCubeSendQueue> cubesToSend = new HashMap<>();
+
+    /**
+     * Cubes encoded while sending cubes in the current tick, shared by all players and cleared after sending.
+     */
+    private final EncodedCubeCache encodedCubeCache = new EncodedCubeCache();
 
     // these player adds will be processed on the next tick
     // this exists as temporary workaround to player respawn code calling addPlayer() before spawning
@@ -216,7 +230,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private final TickableChunkContainer tickableChunksCubesToReturn = new TickableChunkContainer();
 
-    // see comment in updateMovingPlayer() for explnation why it's in this class
+    /**
+     * All CubeWatchers that have at least one non-spectator player within tick range. Updated when players are
+     * added to or removed from watchers, and when players move to another cube.
+     */
+    private final ObjectArrayList<CubeWatcher> tickableWatchers = new ObjectArrayList<>();
+
+    // ticked from here so that unloading happens after watchers for the current player positions have added their tickets.
+    // Cubes are unloaded only after being unused for chunkGCInterval ticks, so cubes that a CubeWatcher is still waiting
+    // for, or that a player teleported into, get their tickets long before they could be unloaded
     private final ChunkGc chunkGc;
 
     final VanillaNetworkHandler vanillaNetworkHandler;
@@ -227,7 +249,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.setPlayerViewDistance(worldServer.getMinecraftServer().getPlayerList().getViewDistance(),
                 ((ICubicPlayerList) worldServer.getMinecraftServer().getPlayerList()).getVerticalViewDistance());
         ((ICubicWorldInternal) worldServer).getLightingManager().registerHeightChangeListener(this);
-        this.chunkGc = new ChunkGc(((ICubicWorldInternal.Server) worldServer).getCubeCache());
+        this.chunkGc = cubeCache.getChunkGc();
         this.vanillaNetworkHandler = ((ICubicWorldInternal.Server) worldServer).getVanillaNetworkHandler();
     }
 
@@ -275,12 +297,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     }
 
     private void addTickableCubes(TickableChunkContainer tickableChunksCubes) {
-        for (CubeWatcher watcher : cubeWatchers) {
-            ICube cube = watcher.getCube();
-            if (cube == null || !watcher.hasPlayerMatchingInRange(NOT_SPECTATOR, 128)) {
-                continue;
+        for (int i = 0, size = tickableWatchers.size(); i < size; i++) {
+            ICube cube = tickableWatchers.get(i).getCube();
+            if (cube != null) {
+                tickableChunksCubes.addCube(cube);
             }
-            tickableChunksCubes.addCube(cube);
         }
     }
 
@@ -313,6 +334,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 addPlayer(player);
             }
         }
+        getWorldServer().profiler.endStartSection("updateSpectators");
+        for (PlayerWrapper playerWrapper : players.valueCollection()) {
+            // players can change game mode at any time, this is the only place where it's checked
+            if (playerWrapper.playerEntity.isSpectator() == (playerWrapper.tickRangeCenter != null)) {
+                updateTickRange(playerWrapper);
+            }
+        }
         getWorldServer().profiler.endStartSection("tickEntries");
         //force update-all every 8000 ticks (400 seconds)
         if (currentTime - this.previousWorldTime > 8000L) {
@@ -382,6 +410,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             getWorldServer().profiler.startSection("cubes");
 
             long stopTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.maxCubeGenerationTimeMillis);
+            BooleanSupplier shouldStop = () -> System.nanoTime() >= stopTime;
             int chunksToGenerate = CubicChunksConfig.maxGeneratedCubesPerTick;
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
@@ -393,7 +422,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 if (!success) {
                     boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
                     getWorldServer().profiler.startSection("generate");
-                    success = watcher.providePlayerCube(canGenerate);
+                    success = watcher.providePlayerCube(canGenerate, shouldStop);
                     getWorldServer().profiler.endSection();
                 }
 
@@ -464,6 +493,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         }
         getWorldServer().profiler.endStartSection("unload");
+        // With ChunkGc being separate from PlayerCubeMap, there are 2 issues:
+        // Problem 0: Sometimes, a chunk can be generated after CubeWatcher's chunk load callback returns with a null
+        // but before ChunkGC call. This means that the cube will get unloaded, even when ChunkWatcher is waiting for it.
+        // Problem 1: Sometimes, when a player teleports far away and is unlucky, the teleport appears to happen after
+        // PlayerCubeMap tick, but before ChunkGc call. This means that PlayerCubeMap won't yet have a CubeWatcher for
+        // the player cubes at all, so even directly checking for CubeWatchers before unload attempt won't work.
+        //
+        // While normally not an issue as it will be reloaded soon anyway, it breaks a lot of things if that cube
+        // contains the player. Which is not unlikely if the player is what caused generating this cube in the first place
+        // for problem #0.
+        // Candidates are only unloaded after chunkGCInterval ticks without tickets, which covers problem #0, and ChunkGc
+        // never unloads cubes next to a player, which covers problem #1.
+        this.chunkGc.tick();
         //if there are no players - unload everything
         if (this.players.isEmpty()) {
             WorldProvider worldprovider = this.getWorldServer().provider;
@@ -474,23 +516,33 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
         getWorldServer().profiler.endStartSection("sendCubes");//unload
         if (!cubesToSend.isEmpty()) {
-            for (EntityPlayerMP player : cubesToSend.keySet()) {
-                Collection<Cube> cubes = cubesToSend.get(player);
-                if (vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
+            for (PlayerCubeSendQueue queue : cubesToSend.values()) {
+                EntityPlayerMP player = queue.getPlayer();
+                boolean hasCubicChunks = vanillaNetworkHandler.hasCubicChunks(player);
+                // vanilla clients don't get the cubic chunks encoding, so don't encode the cubes just to measure them
+                List<Cube> cubes = queue.pollCubesToSend(hasCubicChunks
+                        ? encodedCubeCache::getEncodedSize
+                        : VanillaNetworkHandler::getCubeDataSize);
+                if (cubes.isEmpty()) {
+                    continue;
+                }
+                if (hasCubicChunks) {
+                    PacketCubes packet = new PacketCubes(cubes, queue.pollHeightMapsToSend(cubes), encodedCubeCache);
                     PacketDispatcher.sendTo(packet, player);
                 } else {
                     vanillaNetworkHandler.sendCubeLoadPackets(cubes, player);
                 }
-                //Sending entities per cube.
+                //Sending entities per cube, only after the player has the cube so that they are not invisible on the client.
+                //Entities in the cube were skipped for this player by updateVisibleToPlayers until now
                 for (Cube cube : cubes) {
-                    ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
                     CubeWatcher watcher = getCubeWatcher(cube.getCoords());
                     assert watcher != null;
+                    watcher.onDelivered(player);
+                    ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
                     MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
                 }
             }
-            cubesToSend.clear();
+            encodedCubeCache.clear();
         }
         getWorldServer().profiler.endSection();//sendCubes
         getWorldServer().profiler.endSection();//playerCubeMapTick
@@ -615,6 +667,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             scheduleAddPlayerToWatcher(cubeWatcher, player);
         });
         this.players.put(player.getEntityId(), playerWrapper);
+        updateTickRange(playerWrapper);
         this.setNeedSort();
     }
 
@@ -651,7 +704,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         toSendUnload.stream()
                 .filter(watcher->watcher.containsPlayer(player))
                 .forEach(watcher->watcher.removePlayer(player));
+        setTickRangeCenter(playerWrapper, null);
         this.players.remove(player.getEntityId());
+        this.cubesToSend.remove(player);
         this.setNeedSort();
         vanillaNetworkHandler.removePlayer(player);
     }
@@ -677,25 +732,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
         playerWrapper.updateManagedPos();
+        updateTickRange(playerWrapper);
         this.setNeedSort();
+        // loads for cubes that are no longer watched have been dropped by updatePlayer, reorder the remaining ones
+        AsyncWorldIOExecutor.onPlayersMoved();
 
         if (!vanillaNetworkHandler.hasCubicChunks(player)) {
             vanillaNetworkHandler.updatePlayerPosition(this, player, playerWrapper.getManagedCubePos());
         }
-        // With ChunkGc being separate from PlayerCubeMap, there are 2 issues:
-        // Problem 0: Sometimes, a chunk can be generated after CubeWatcher's chunk load callback returns with a null
-        // but before ChunkGC call. This means that the cube will get unloaded, even when ChunkWatcher is waiting for it.
-        // Problem 1: When chunkGc call is not in this method, sometimes, when a player teleports far away and is
-        // unlucky, and ChunkGc runs in the same tick the teleport appears to happen after PlayerCubeMap call, but
-        // before ChunkGc call. This means that PlayerCubeMap won't yet have a CubeWatcher for the player cubes at all,
-        // so even directly checking for CubeWatchers before unload attempt won't work.
-        //
-        // While normally not an issue as it will be reloaded soon anyway, it breaks a lot of things if that cube
-        // contains the player. Which is not unlikely if the player is what caused generating this cube in the first place
-        // for problem #0.
-        // So we put ChunkGc here so that we can be sure it has consistent data about player location, and that no chunks are
-        // loaded while we aren't looking.
-        this.chunkGc.tick();
     }
 
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
@@ -744,6 +788,97 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         setNeedSort();
     }
 
+    private void updateTickRange(PlayerWrapper playerWrapper) {
+        setTickRangeCenter(playerWrapper, playerWrapper.playerEntity.isSpectator() ? null : playerWrapper.getManagedCubePos());
+    }
+
+    private void setTickRangeCenter(PlayerWrapper playerWrapper, @Nullable CubePos center) {
+        CubePos oldCenter = playerWrapper.tickRangeCenter;
+        if (Objects.equals(oldCenter, center)) {
+            return;
+        }
+        EntityPlayerMP player = playerWrapper.playerEntity;
+        // add the new ones first, so that watchers in both ranges don't get removed from tickableWatchers and added back
+        playerWrapper.tickRangeCenter = center;
+        if (center != null) {
+            forAllInTickRange(center, watcher -> {
+                if (watcher.containsPlayer(player) && (oldCenter == null || !isInTickRange(oldCenter, watcher.getCubePos()))) {
+                    addPlayerInTickRange(watcher);
+                }
+            });
+        }
+        if (oldCenter != null) {
+            forAllInTickRange(oldCenter, watcher -> {
+                if (watcher.containsPlayer(player) && (center == null || !isInTickRange(center, watcher.getCubePos()))) {
+                    removePlayerInTickRange(watcher);
+                }
+            });
+        }
+    }
+
+    private void forAllInTickRange(CubePos center, Consumer<CubeWatcher> action) {
+        for (int dx = -TICK_RANGE_CUBES; dx <= TICK_RANGE_CUBES; dx++) {
+            for (int dy = -TICK_RANGE_CUBES; dy <= TICK_RANGE_CUBES; dy++) {
+                for (int dz = -TICK_RANGE_CUBES; dz <= TICK_RANGE_CUBES; dz++) {
+                    if (dx * dx + dy * dy + dz * dz > TICK_RANGE_CUBES * TICK_RANGE_CUBES) {
+                        continue;
+                    }
+                    CubeWatcher watcher = cubeWatchers.get(center.getX() + dx, center.getY() + dy, center.getZ() + dz);
+                    if (watcher != null) {
+                        action.accept(watcher);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isInTickRange(CubePos center, CubePos pos) {
+        int dx = pos.getX() - center.getX();
+        int dy = pos.getY() - center.getY();
+        int dz = pos.getZ() - center.getZ();
+        return dx * dx + dy * dy + dz * dz <= TICK_RANGE_CUBES * TICK_RANGE_CUBES;
+    }
+
+    void onPlayerAddedToWatcher(CubeWatcher watcher, EntityPlayerMP player) {
+        PlayerWrapper playerWrapper = players.get(player.getEntityId());
+        if (playerWrapper != null && playerWrapper.tickRangeCenter != null && isInTickRange(playerWrapper.tickRangeCenter, watcher.getCubePos())) {
+            addPlayerInTickRange(watcher);
+        }
+    }
+
+    void onPlayerRemovedFromWatcher(CubeWatcher watcher, EntityPlayerMP player) {
+        PlayerWrapper playerWrapper = players.get(player.getEntityId());
+        if (playerWrapper != null && playerWrapper.tickRangeCenter != null && isInTickRange(playerWrapper.tickRangeCenter, watcher.getCubePos())) {
+            removePlayerInTickRange(watcher);
+        }
+        ((ICubicEntityTracker) getWorldServer().getEntityTracker()).onPlayerStoppedWatchingCube(player, watcher.getCubePos());
+    }
+
+    private void addPlayerInTickRange(CubeWatcher watcher) {
+        if (watcher.playersInTickRange++ == 0) {
+            watcher.tickableIndex = tickableWatchers.size();
+            tickableWatchers.add(watcher);
+        }
+    }
+
+    private void removePlayerInTickRange(CubeWatcher watcher) {
+        assert watcher.playersInTickRange > 0;
+        if (--watcher.playersInTickRange == 0) {
+            removeTickableWatcher(watcher);
+        }
+    }
+
+    private void removeTickableWatcher(CubeWatcher watcher) {
+        int index = watcher.tickableIndex;
+        // swap with the last one to remove in constant time
+        CubeWatcher last = tickableWatchers.pop();
+        if (last != watcher) {
+            tickableWatchers.set(index, last);
+            last.tickableIndex = index;
+        }
+        watcher.tickableIndex = -1;
+    }
+
     private void removePlayerFromCubeWatcher(CubeWatcher cubeWatcher, EntityPlayerMP playerEntity) {
         if (!cubeWatcher.containsPlayer(playerEntity)) {
             WatchersSortingList<CubeWatcher> cubeWatchers = cubesToAddPlayerTo.get(playerEntity);
@@ -772,11 +907,36 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 columnWatcher.isSentToPlayers();
     }
 
+    /**
+     * @return true if the player is watching the cube and the cube data has already been sent to it, false while the
+     * cube is still waiting in the player's {@link PlayerCubeSendQueue}
+     */
     public boolean isPlayerWatchingCube(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
-        CubeWatcher watcher = this.getCubeWatcher(new CubePos(cubeX, cubeY, cubeZ));
-        return watcher != null &&
-                watcher.containsPlayer(player) &&
-                watcher.isSentToPlayers();
+        CubeWatcher watcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+        return watcher != null && watcher.isDeliveredTo(player);
+    }
+
+    /**
+     * Calls the consumer for each player the cube at the given position has been sent to
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @param consumer the consumer
+     */
+    public void forEachPlayerWatchingCube(int cubeX, int cubeY, int cubeZ, Consumer<EntityPlayerMP> consumer) {
+        CubeWatcher watcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+        if (watcher != null) {
+            watcher.forEachPlayerDeliveredTo(consumer);
+        }
+    }
+
+    public int getHorizontalViewDistance() {
+        return horizontalViewDistance;
+    }
+
+    public int getVerticalViewDistance() {
+        return verticalViewDistance;
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -903,6 +1063,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.cubeWatchersToUpdate.remove(cubeWatcher);
         this.cubesToGenerate.remove(cubeWatcher);
         this.cubesToSendToClients.remove(cubeWatcher);
+        assert cubeWatcher.playersInTickRange == 0 : "Removing cube watcher with players in tick range";
+        if (cubeWatcher.tickableIndex >= 0) {
+            removeTickableWatcher(cubeWatcher);
+        }
         if (cubeWatcher.getCube() != null) {
             cubeWatcher.getCube().getTickets().remove(cubeWatcher); // remove the ticket, so this Cube can unload
         }
@@ -928,11 +1092,22 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     }
 
     public void scheduleSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.put(player, cube);
+        cubesToSend.computeIfAbsent(player, PlayerCubeSendQueue::new).add(cube);
     }
 
     public void removeSchedulesSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.remove(player, cube);
+        PlayerCubeSendQueue queue = cubesToSend.get(player);
+        if (queue != null) {
+            queue.remove(cube);
+        }
+    }
+
+    /**
+     * Returns the queue of cubes waiting to be sent to the given player, which also keeps statistics about cubes already
+     * sent to that player. Returns null if no cubes have been sent to that player in this world yet.
+     */
+    @Nullable public PlayerCubeSendQueue getCubeSendQueue(EntityPlayerMP player) {
+        return cubesToSend.get(player);
     }
 
     @Nullable public CubeWatcher getCubeWatcher(CubePos pos) {
@@ -951,6 +1126,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         final EntityPlayerMP playerEntity;
         private double managedPosY;
+        /**
+         * The cube around which this player makes cubes tickable, null if the player doesn't make any cubes tickable
+         */
+        @Nullable CubePos tickRangeCenter;
 
         PlayerWrapper(EntityPlayerMP player) {
             this.playerEntity = player;
@@ -1000,7 +1179,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     
     public Iterator<Cube> getCubeIterator() {
         WorldServer world = this.getWorldServer();
-        final Iterator<CubeWatcher> iterator = this.cubeWatchers.iterator();
         ImmutableSetMultimap<ChunkPos, Ticket> persistentChunksFor = ForgeChunkManager.getPersistentChunksFor(world);
         world.profiler.startSection("forcedChunkLoading");
         @SuppressWarnings("unchecked")
@@ -1014,6 +1192,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         return new AbstractIterator<Cube>() {
 
             Iterator<Cube> persistentCubes = persistentCubesIterator;
+            int tickableIndex = 0;
             
             boolean shouldSkip(Cube cube){
                 if (cube == null) 
@@ -1036,13 +1215,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     return cube;
                 }
                 
-                while (iterator.hasNext()) {
-                    CubeWatcher watcher = iterator.next();
-                    Cube cube = watcher.getCube();
+                while (tickableIndex < tickableWatchers.size()) {
+                    Cube cube = tickableWatchers.get(tickableIndex++).getCube();
                     if(shouldSkip(cube))
                         continue;
-                    if(!watcher.hasPlayerMatchingInRange(NOT_SPECTATOR, 128))
-                        continue;
                     return cube;
                 }
                 return this.endOfData();
@@ -0,0 +1,234 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.channel.Channel;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cubes waiting to be sent to a single player.
+ * <p>
+ * The amount of cube data sent to the player each tick is limited by a token bucket refilled with
+ * {@link CubicChunksConfig#cubeSendBytesPerTick} bytes every tick. Cubes closest to the player are sent first, and
+ * nothing is sent while the player's connection isn't writable, so that the outbound buffer doesn't grow when the
+ * client can't keep up.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PlayerCubeSendQueue {
+
+    /**
+     * How many ticks worth of bytes can be accumulated while nothing is being sent.
+     */
+    private static final int MAX_BURST_TICKS = 4;
+
+    private final EntityPlayerMP player;
+    private final Set<Cube> cubes = new HashSet<>();
+    /**
+     * Cubes closest to {@link #sortCenter} first. Cubes removed from {@link #cubes} are left here and skipped when
+     * polled, the whole queue is only rebuilt when the player moves to another cube.
+     */
+    private final PriorityQueue<Cube> ordered = new PriorityQueue<>(
+            Comparator.comparingInt(cube -> distanceSq(this.sortCenter, cube.getCoords())));
+    private CubePos sortCenter;
+    private long tokens;
+    /**
+     * Version of the heightmap last sent to the player for each column, see
+     * {@link ServerHeightMap#getClientDataVersion()}
+     */
+    private final Long2IntMap sentHeightMapVersions = new Long2IntOpenHashMap();
+
+    private long bytesSent;
+    private long cubesSent;
+
+    PlayerCubeSendQueue(EntityPlayerMP player) {
+        this.player = player;
+        this.sortCenter = CubePos.fromEntity(player);
+    }
+
+    EntityPlayerMP getPlayer() {
+        return player;
+    }
+
+    void add(Cube cube) {
+        if (cubes.add(cube)) {
+            ordered.add(cube);
+        }
+    }
+
+    void remove(Cube cube) {
+        cubes.remove(cube);
+        if (cubes.isEmpty()) {
+            ordered.clear();
+        }
+    }
+
+    /**
+     * Removes the cubes that should be sent to the player this tick from the queue, closest to the player first.
+     *
+     * @param sizeOf the amount of bytes sending the cube will take
+     * @return the cubes to send, may be empty
+     */
+    List<Cube> pollCubesToSend(ToIntFunction<Cube> sizeOf) {
+        int bytesPerTick = CubicChunksConfig.cubeSendBytesPerTick;
+        if (bytesPerTick <= 0) {
+            List<Cube> toSend = new ArrayList<>(cubes.size());
+            for (Cube cube : cubes) {
+                if (cube.isCubeLoaded()) {
+                    toSend.add(cube);
+                    bytesSent += sizeOf.applyAsInt(cube);
+                }
+            }
+            cubes.clear();
+            ordered.clear();
+            cubesSent += toSend.size();
+            return toSend;
+        }
+        tokens = Math.min(tokens + bytesPerTick, (long) bytesPerTick * MAX_BURST_TICKS);
+        if (cubes.isEmpty() || tokens <= 0 || !isConnectionWritable()) {
+            return Collections.emptyList();
+        }
+        CubePos playerPos = CubePos.fromEntity(player);
+        if (!playerPos.equals(sortCenter) || ordered.size() > cubes.size() * 2) {
+            // the order depends on sortCenter, so the heap has to be rebuilt when it changes
+            sortCenter = playerPos;
+            ordered.clear();
+            ordered.addAll(cubes);
+        }
+
+        List<Cube> toSend = new ArrayList<>();
+        while (tokens > 0 && !ordered.isEmpty()) {
+            Cube cube = ordered.poll();
+            // skip cubes removed from the queue while waiting
+            if (!cubes.remove(cube)) {
+                continue;
+            }
+            // the cube could have been unloaded and loaded again as a different object while waiting
+            if (!cube.isCubeLoaded()) {
+                continue;
+            }
+            // a cube bigger than the remaining tokens is still sent, the debt is paid off in the next ticks
+            int size = sizeOf.applyAsInt(cube);
+            tokens -= size;
+            bytesSent += size;
+            toSend.add(cube);
+        }
+        cubesSent += toSend.size();
+        return toSend;
+    }
+
+    /**
+     * Returns the columns of the given cubes with heightmaps the player doesn't have yet, each column at most once,
+     * and records them as sent. Heightmaps are only sent with non-empty cubes.
+     *
+     * @param sentCubes the cubes being sent
+     * @return the columns to send heightmaps of
+     */
+    List<Chunk> pollHeightMapsToSend(List<Cube> sentCubes) {
+        List<Chunk> columns = new ArrayList<>();
+        for (Cube cube : sentCubes) {
+            if (cube.isEmpty()) {
+                continue;
+            }
+            Chunk column = cube.getColumn();
+            int version = ((ServerHeightMap) ((IColumn) column).getOpacityIndex()).getClientDataVersion();
+            long key = ChunkPos.asLong(column.x, column.z);
+            if (!sentHeightMapVersions.containsKey(key) || sentHeightMapVersions.get(key) != version) {
+                sentHeightMapVersions.put(key, version);
+                columns.add(column);
+                bytesSent += PacketCubes.getEncodedHeightMapSize();
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Called when the column is unloaded on the client, so its heightmap needs to be sent again
+     */
+    void onColumnUnloaded(ChunkPos pos) {
+        sentHeightMapVersions.remove(ChunkPos.asLong(pos.x, pos.z));
+    }
+
+    private boolean isConnectionWritable() {
+        NetHandlerPlayServer connection = player.connection;
+        if (connection == null) {
+            return true;
+        }
+        Channel channel = connection.getNetworkManager().channel();
+        return channel == null || channel.isWritable();
+    }
+
+    private static int distanceSq(CubePos a, CubePos b) {
+        int dx = a.getX() - b.getX();
+        int dy = a.getY() - b.getY();
+        int dz = a.getZ() - b.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the amount of cubes waiting to be sent
+     */
+    public int getQueuedCubes() {
+        return cubes.size();
+    }
+
+    /**
+     * @return total amount of cubes sent to the player in this world
+     */
+    public long getCubesSent() {
+        return cubesSent;
+    }
+
+    /**
+     * @return total size of the cube and heightmap data sent to the player in this world, in bytes. This doesn't
+     * include tile entities and packet overhead.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+}
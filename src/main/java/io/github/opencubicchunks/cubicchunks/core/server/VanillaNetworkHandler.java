@@ -332,7 +332,7 @@ public class VanillaNetworkHandler {
         List<ICube> secondSendCubes = new ArrayList<>();
         List<ICube> lastSendCubes = new ArrayList<>();
         for (CubeWatcher cubeWatcher : cubeMap.cubeWatchers) {
-            if (!cubeWatcher.isSentToPlayers() || !cubeWatcher.containsPlayer(player)) {
+            if (!cubeWatcher.isDeliveredTo(player)) {
                 continue;
             }
             int cy = Math.abs(player.chunkCoordY - cubeWatcher.getY());
@@ -506,6 +506,21 @@ public class VanillaNetworkHandler {
         return total;
     }
 
+    /**
+     * @return size of the block and light data sent to vanilla clients for the cube, without encoding it
+     */
+    static int getCubeDataSize(ICube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == Chunk.NULL_BLOCK_STORAGE || storage.isEmpty()) {
+            return 0;
+        }
+        int total = storage.getData().getSerializedSize() + storage.getBlockLight().getData().length;
+        if (cube.getWorld().provider.hasSkyLight()) {
+            total += storage.getSkyLight().getData().length;
+        }
+        return total;
+    }
+
     private static ExtendedBlockStorage getStorage(ICube[] cubesToSend, int idx) {
         return cubesToSend[idx] == null ? null : cubesToSend[idx].getStorage();
     }
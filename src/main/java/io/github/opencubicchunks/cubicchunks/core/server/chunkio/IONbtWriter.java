@@ -31,11 +31,13 @@ import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.util.BlockStorageUtils;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
@@ -54,6 +56,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
@@ -171,7 +174,24 @@ class IONbtWriter {
         NibbleArray add = null;
         NibbleArray add2neid = null;
 
-        for (int i = 0; i < 4096; ++i) {
+        IBlockState uniformState = BlockStorageUtils.getUniformBlockState(ebs);
+        if (uniformState != null) {
+            // only need to look up the id once
+            @SuppressWarnings("deprecation")
+            int id = Block.BLOCK_STATE_IDS.get(uniformState);
+            Arrays.fill(abyte, (byte) (id >> 4 & 255));
+            BlockStorageUtils.fill(data, id & 15);
+            if ((id >> 12 & 0xF) != 0) {
+                add = new NibbleArray();
+                BlockStorageUtils.fill(add, id >> 12 & 0xF);
+            }
+            if ((id >> 16 & 0xF) != 0) {
+                add2neid = new NibbleArray();
+                BlockStorageUtils.fill(add2neid, id >> 16 & 0xF);
+            }
+        }
+
+        for (int i = 0; uniformState == null && i < 4096; ++i) {
             int x = i & 15;
             int y = i >> 8 & 15;
             int z = i >> 4 & 15;
@@ -25,6 +25,7 @@
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
 import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -46,13 +47,25 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -63,10 +76,24 @@ public class RegionCubeIO implements ICubeIO {
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
 
+    private static final int REGIONS_COMPRESSED_AHEAD = 2;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    // compresses the NBT data of queued entries while the IO thread writes the previous regions to disk
+    private static final ExecutorService compressionExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+            r -> {
+                Thread thread = new Thread(r, "Cube Compression Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
     @Nonnull private World world;
     private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
+    // snapshot of the save queues being written, only accessed from the IO thread
+    @Nonnull private final ArrayDeque<RegionBatch<?>> regionBatches = new ArrayDeque<>();
 
     public RegionCubeIO(World world) throws IOException {
         this.world = world;
@@ -203,6 +230,10 @@ public class RegionCubeIO implements ICubeIO {
     }
 
     @Override public boolean cubeExists(int cubeX, int cubeY, int cubeZ) {
+        // unloaded cubes that haven't been written yet exist too
+        if (this.cubesToSave.containsKey(new CubePos(cubeX, cubeY, cubeZ))) {
+            return true;
+        }
         try {
             return this.getSave().getSaveSection3D().hasEntry(new EntryLocation3D(cubeX, cubeY, cubeZ));
         } catch (IOException e) {
@@ -235,55 +266,145 @@ public class RegionCubeIO implements ICubeIO {
             SaveCubeColumns save = this.getSave();
             // NOTE: return true to redo this call (used for batching)
 
-            final int ColumnsBatchSize = 25;
-            final int CubesBatchSize = 250;
-
-            int numColumnsSaved = 0;
-            int numCubesSaved = 0;
-
-            // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
-                try {
-                    // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    save.save2d(entry.pos, ByteBuffer.wrap(data));
-                    //column can be removed from toSave queue only after writing to disk
-                    //to avoid race conditions
-                    colIt.remove();
-                } catch (Throwable t) {
-                    LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
+            if (regionBatches.isEmpty()) {
+                collectRegionBatches();
+                if (regionBatches.isEmpty()) {
+                    return false;
                 }
             }
+            // compress the next few regions on other threads while this one is being written
+            int compressAhead = REGIONS_COMPRESSED_AHEAD;
+            for (Iterator<RegionBatch<?>> it = regionBatches.iterator(); it.hasNext() && compressAhead >= 0; compressAhead--) {
+                it.next().startCompression();
+            }
+            regionBatches.poll().write(save);
 
-            boolean hasMoreColumns = colIt.hasNext();
+            return !regionBatches.isEmpty() || !columnsToSave.isEmpty() || !cubesToSave.isEmpty();
+        } catch (Throwable t) {
+            LOGGER.error("Exception occurred when saving cubes", t);
+            regionBatches.clear();
+            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+        }
+    }
 
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
-            // save a batch of cubes
+    /**
+     * Takes a snapshot of the save queues, grouped by region so that each region file is written at once. Entries within a
+     * region are sorted by their index in the region, which keeps the writes in the order of the region header.
+     */
+    private void collectRegionBatches() {
+        for (List<SaveEntry<EntryLocation2D>> entries : groupByRegion(columnsToSave.values())) {
+            regionBatches.add(new ColumnBatch(entries));
+        }
+        for (List<SaveEntry<EntryLocation3D>> entries : groupByRegion(cubesToSave.values())) {
+            regionBatches.add(new CubeBatch(entries));
+        }
+    }
 
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
-                try {
-                    // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+    private static <K extends IKey<?>> Collection<List<SaveEntry<K>>> groupByRegion(Collection<SaveEntry<K>> toSave) {
+        Map<RegionKey, List<SaveEntry<K>>> byRegion = new HashMap<>();
+        for (SaveEntry<K> entry : toSave) {
+            byRegion.computeIfAbsent(entry.pos.getRegionKey(), key -> new ArrayList<>()).add(entry);
+        }
+        for (List<SaveEntry<K>> entries : byRegion.values()) {
+            entries.sort(Comparator.comparingInt(entry -> entry.pos.getId()));
+        }
+        return byRegion.values();
+    }
+
+    /**
+     * Entries of one region file. Compressing the entries is done on the compression threads, writing them to disk on the
+     * IO thread.
+     */
+    private static abstract class RegionBatch<K extends IKey<?>> {
+
+        private final List<SaveEntry<K>> entries;
+        @Nullable private List<CompletableFuture<byte[]>> compressed;
+
+        RegionBatch(List<SaveEntry<K>> entries) {
+            this.entries = entries;
+        }
+
+        void startCompression() {
+            if (compressed != null) {
+                return;
+            }
+            compressed = new ArrayList<>(entries.size());
+            for (SaveEntry<K> entry : entries) {
+                compressed.add(CompletableFuture.supplyAsync(() -> {
                     try {
-                        save.save3d(entry.pos, ByteBuffer.wrap(data));
-                    } finally {
-                        //cube can be removed from toSave queue only after writing to disk
-                        //to avoid race conditions
-                        cubeIt.remove();
+                        return IONbtWriter.writeNbtBytes(entry.nbt);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                }, compressionExecutor));
+            }
+        }
+
+        void write(SaveCubeColumns save) {
+            startCompression();
+            assert compressed != null;
+            for (int i = 0; i < entries.size(); i++) {
+                SaveEntry<K> entry = entries.get(i);
+                boolean written = false;
+                try {
+                    save(save, entry.pos, ByteBuffer.wrap(compressed.get(i).join()));
+                    written = true;
                 } catch (Throwable t) {
-                    LOGGER.error(
-                            String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
+                    onError(entry.pos, t);
+                } finally {
+                    // entries can be removed from the save queue only after writing to disk to avoid race conditions
+                    onWriteAttempted(entry, written);
                 }
             }
-            boolean hasMoreCubes = cubeIt.hasNext();
-            return hasMoreColumns || hasMoreCubes;
-        } catch (Throwable t) {
-            LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+        }
+
+        abstract void save(SaveCubeColumns save, K pos, ByteBuffer data) throws IOException;
+
+        abstract void onError(K pos, Throwable t);
+
+        abstract void onWriteAttempted(SaveEntry<K> entry, boolean written);
+    }
+
+    private class ColumnBatch extends RegionBatch<EntryLocation2D> {
+
+        ColumnBatch(List<SaveEntry<EntryLocation2D>> entries) {
+            super(entries);
+        }
+
+        @Override void save(SaveCubeColumns save, EntryLocation2D pos, ByteBuffer data) throws IOException {
+            save.save2d(pos, data);
+        }
+
+        @Override void onError(EntryLocation2D pos, Throwable t) {
+            LOGGER.error(String.format("Unable to write column (%d, %d)", pos.getEntryX(), pos.getEntryZ()), t);
+        }
+
+        @Override void onWriteAttempted(SaveEntry<EntryLocation2D> entry, boolean written) {
+            // failed columns stay queued and are retried
+            if (written) {
+                // only remove it if it hasn't been queued again in the meantime
+                columnsToSave.remove(new ChunkPos(entry.pos.getEntryX(), entry.pos.getEntryZ()), entry);
+            }
+        }
+    }
+
+    private class CubeBatch extends RegionBatch<EntryLocation3D> {
+
+        CubeBatch(List<SaveEntry<EntryLocation3D>> entries) {
+            super(entries);
+        }
+
+        @Override void save(SaveCubeColumns save, EntryLocation3D pos, ByteBuffer data) throws IOException {
+            save.save3d(pos, data);
+        }
+
+        @Override void onError(EntryLocation3D pos, Throwable t) {
+            LOGGER.error(String.format("Unable to write cube %d, %d, %d", pos.getEntryX(), pos.getEntryY(), pos.getEntryZ()), t);
+        }
+
+        @Override void onWriteAttempted(SaveEntry<EntryLocation3D> entry, boolean written) {
+            // only remove it if it hasn't been queued again in the meantime
+            cubesToSave.remove(new CubePos(entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), entry);
         }
     }
 
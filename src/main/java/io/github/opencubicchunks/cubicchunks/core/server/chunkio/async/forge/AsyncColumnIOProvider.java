@@ -19,10 +19,14 @@
 
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
+
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.world.ChunkDataEvent;
@@ -77,6 +81,16 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Chunk> {
         runCallbacks();
     }
 
+    @Override World getWorld() {
+        return colInfo.world;
+    }
+
+    @Override double distanceSq(EntityPlayer player) {
+        double dx = player.posX - cubeToCenterBlock(colInfo.x);
+        double dz = player.posZ - cubeToCenterBlock(colInfo.z);
+        return dx * dx + dz * dz;
+    }
+
     @Nullable @Override Chunk get() {
         return columnData == null ? null : columnData.getObject();
     }
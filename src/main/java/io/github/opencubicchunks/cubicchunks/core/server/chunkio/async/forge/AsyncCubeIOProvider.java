@@ -19,12 +19,16 @@
 
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
+
 import io.github.opencubicchunks.cubicchunks.api.world.CubeDataEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
 
@@ -95,6 +99,21 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         return cubeData == null ? null : (Cube) cubeData.getObject();
     }
 
+    @Override World getWorld() {
+        return cubeInfo.world;
+    }
+
+    @Override double distanceSq(EntityPlayer player) {
+        double dx = player.posX - cubeToCenterBlock(cubeInfo.x);
+        double dy = player.posY - cubeToCenterBlock(cubeInfo.y);
+        double dz = player.posZ - cubeToCenterBlock(cubeInfo.z);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    QueuedCube getCubeInfo() {
+        return cubeInfo;
+    }
+
     public void setColumn(@Nullable Chunk chunk) {
         this.futureColumn.complete(chunk);
     }
@@ -21,7 +21,12 @@ package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
 
 import mcp.MethodsReturnNonnullByDefault;
 
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.World;
+
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -35,8 +40,33 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 abstract class AsyncIOProvider<T> implements Runnable {
 
+    /**
+     * Order in which queued tasks are executed: closest to a player first, and in the order they were queued if the
+     * distance is the same.
+     */
+    static final Comparator<Runnable> EXECUTION_ORDER = Comparator.<Runnable>comparingDouble(r -> ((AsyncIOProvider<?>) r).priority)
+            .thenComparingLong(r -> ((AsyncIOProvider<?>) r).sequence);
+
+    private static final AtomicLong sequenceCounter = new AtomicLong();
+
     private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
     volatile boolean finished = false;
+    // squared distance to the closest player, only written from the main thread while the task isn't in the queue
+    private double priority;
+    private final long sequence = sequenceCounter.getAndIncrement();
+
+    /**
+     * Updates the priority of this task to the current distance to the closest player. Must be called from the main thread,
+     * and only when the task is not in an executor queue.
+     */
+    void updatePriority() {
+        World world = getWorld();
+        double minDistSq = Double.MAX_VALUE;
+        for (EntityPlayer player : world.playerEntities) {
+            minDistSq = Math.min(minDistSq, distanceSq(player));
+        }
+        this.priority = minDistSq;
+    }
 
     /**
      * Add a callback to this access group, to be executed when the load finishes
@@ -53,7 +83,8 @@ abstract class AsyncIOProvider<T> implements Runnable {
      * @param callback The callback to remove
      */
     void removeCallback(Consumer<T> callback) {
-        this.callbacks.remove(callback);
+        // compare from the side of the stored callback, which may be a wrapper that compares equal to the original
+        this.callbacks.removeIf(c -> c.equals(callback));
     }
 
     /**
@@ -88,6 +119,14 @@ abstract class AsyncIOProvider<T> implements Runnable {
         return !callbacks.isEmpty();
     }
 
+    abstract World getWorld();
+
+    /**
+     * @param player the player
+     * @return squared distance between the player and the center of the loaded object
+     */
+    abstract double distanceSq(EntityPlayer player);
+
     /**
      * Finalize the loading operating synchronously from the main thread.
      */
@@ -41,10 +41,13 @@ import net.minecraftforge.fml.common.gameevent.TickEvent;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -67,7 +70,7 @@ public class AsyncWorldIOExecutor {
 
     private static final AtomicInteger threadCounter = new AtomicInteger();
     private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+            new PriorityBlockingQueue<>(11, AsyncIOProvider.EXECUTION_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -81,7 +84,7 @@ public class AsyncWorldIOExecutor {
     // use separate thread pool for cubes and columns to avoid situation where only cube tasks are being executed
     // all waiting for their columns
     private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+            new PriorityBlockingQueue<>(11, AsyncIOProvider.EXECUTION_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -97,6 +100,9 @@ public class AsyncWorldIOExecutor {
     private static final Multimap<QueuedColumn, QueuedCube> loadingCubesColumnMap =
             Multimaps.newMultimap(new ConcurrentHashMap<>(), Sets::newConcurrentHashSet);
 
+    // set when players move, queued tasks are reordered by distance to the closest player at the end of the tick
+    private static boolean needsReprioritize = false;
+
     /**
      * Load a cube, directly.
      *
@@ -121,6 +127,7 @@ public class AsyncWorldIOExecutor {
             task.setColumn(column);
             task.run();
         }
+        loadingCubesColumnMap.remove(new QueuedColumn(cubeX, cubeZ, world), key);
         task.runSynchronousPart();
         return task.get();
     }
@@ -215,7 +222,7 @@ public class AsyncWorldIOExecutor {
         if (task == null) {
             task = new AsyncCubeIOProvider(key, loader);
             task.addCallback(runnable); // Add before calling execute for thread safety
-            task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
+            task.updatePriority();
             cubeTasks.put(key, task);
             cubeThreadPool.execute(task);
         } else {
@@ -247,6 +254,7 @@ public class AsyncWorldIOExecutor {
         if (task == null) {
             task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator());
             task.addCallback(runnable); // Add before calling execute for thread safety
+            task.updatePriority();
             columnTasks.put(key, task);
             columnThreadPool.execute(task);
         } else {
@@ -277,6 +285,7 @@ public class AsyncWorldIOExecutor {
         if (!task.hasCallbacks()) {
             cubeTasks.remove(key);
             cubeThreadPool.remove(task);
+            loadingCubesColumnMap.remove(new QueuedColumn(x, z, world), key);
         }
     }
 
@@ -314,6 +323,8 @@ public class AsyncWorldIOExecutor {
         while (cubeItr.hasNext()) {
             AsyncCubeIOProvider task = cubeItr.next();
             if (task.isFinished()) {
+                QueuedCube key = task.getCubeInfo();
+                loadingCubesColumnMap.remove(new QueuedColumn(key.x, key.z, key.world), key);
                 task.runSynchronousPart();
 
                 cubeItr.remove();
@@ -329,6 +340,37 @@ public class AsyncWorldIOExecutor {
                 columnIter.remove();
             }
         }
+
+        if (needsReprioritize) {
+            needsReprioritize = false;
+            reprioritize(cubeThreadPool);
+            reprioritize(columnThreadPool);
+        }
+    }
+
+    /**
+     * Notify the loader that players in the given world have moved, so that tasks that are still waiting in the queue
+     * should be reordered to load the cubes and columns closest to players first.
+     */
+    public static void onPlayersMoved() {
+        needsReprioritize = true;
+    }
+
+    /**
+     * Recalculates the priority of all tasks that haven't been started yet. Tasks have to be taken out of the queue
+     * to be updated, as the queue doesn't support changing order of elements already in it.
+     */
+    private static void reprioritize(ThreadPoolExecutor executor) {
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        if (queue.isEmpty()) {
+            return;
+        }
+        List<Runnable> tasks = new ArrayList<>(queue.size());
+        queue.drainTo(tasks);
+        for (Runnable task : tasks) {
+            ((AsyncIOProvider<?>) task).updatePriority();
+        }
+        queue.addAll(tasks);
     }
 
     /**
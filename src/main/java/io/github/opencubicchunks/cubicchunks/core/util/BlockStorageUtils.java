@@ -0,0 +1,99 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Fast paths for cubes filled with a single block state and a single light value, which is the case for most cubes far
+ * below and above the surface.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class BlockStorageUtils {
+
+    /**
+     * Returns the block state of all blocks in the storage, or null if not all blocks are the same
+     */
+    @Nullable
+    public static IBlockState getUniformBlockState(ExtendedBlockStorage storage) {
+        IBlockState state = storage.get(0, 0, 0);
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (storage.get(x, y, z) != state) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Sets all blocks in the storage to the given block state
+     */
+    public static void fill(ExtendedBlockStorage storage, IBlockState state) {
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    storage.set(x, y, z, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the light value at all positions of the array, or -1 if it's not the same everywhere
+     */
+    public static int getUniformLight(NibbleArray light) {
+        byte[] data = light.getData();
+        byte first = data[0];
+        if ((first & 0xF) != (first >>> 4 & 0xF)) {
+            return -1;
+        }
+        for (byte b : data) {
+            if (b != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    /**
+     * Sets all values in the array to the given light value
+     */
+    public static void fill(NibbleArray light, int value) {
+        Arrays.fill(light.getData(), (byte) (value | value << 4));
+    }
+}
@@ -43,6 +43,8 @@ import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -51,89 +53,116 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * Simple class that allows to quickly access blocks near specified cube without the overhead of getting these cubes.
  * <p>
  * Does not allow to set blocks, only get blocks, their opacity and get/set light values.
+ * <p>
+ * An instance can be reused for a different region using {@link #init(ICubeProviderInternal, CubePos, CubePos)}, the
+ * arrays are only reallocated when the new region is bigger.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public class FastCubeBlockAccess implements ILightBlockAccess {
 
-    @Nonnull private final ExtendedBlockStorage[][][] cache;
-    @Nonnull private final Cube[][][] cubes;
-    @Nonnull private final Chunk[][] columns;
-    private final int originX, originY, originZ;
-    private final int dx, dy, dz;
+    private static final ExtendedBlockStorage[] NO_STORAGES = new ExtendedBlockStorage[0];
+    private static final Cube[] NO_CUBES = new Cube[0];
+    private static final Chunk[] NO_COLUMNS = new Chunk[0];
+
+    // cubes are indexed by index(), columns by cubeX * dz + cubeZ
+    @Nonnull private ExtendedBlockStorage[] cache = NO_STORAGES;
+    @Nonnull private Cube[] cubes = NO_CUBES;
+    @Nonnull private Chunk[] columns = NO_COLUMNS;
+    private int originX, originY, originZ;
+    private int dx, dy, dz;
     @Nonnull private final World world;
 
     public FastCubeBlockAccess(ICubeProviderInternal cache, ICube cube, int radius) {
-        this(cube.getWorld(), cache,
-                cube.getCoords().sub(radius, radius, radius), cube.getCoords().add(radius, radius, radius));
+        this(cube.getWorld());
+        init(cache, cube.getCoords().sub(radius, radius, radius), cube.getCoords().add(radius, radius, radius));
+    }
+
+    /**
+     * Creates an empty block access, {@link #init(ICubeProviderInternal, CubePos, CubePos)} has to be called before
+     * it's used.
+     */
+    public FastCubeBlockAccess(World world) {
+        this.world = world;
     }
 
-    private FastCubeBlockAccess(World world, ICubeProviderInternal prov, CubePos start, CubePos end) {
+    /**
+     * Makes this block access cover the cubes between start and end (inclusive), replacing the previous region.
+     *
+     * @return this block access
+     */
+    public FastCubeBlockAccess init(ICubeProviderInternal prov, CubePos start, CubePos end) {
+        clear();
         this.dx = Math.abs(end.getX() - start.getX()) + 1;
         this.dy = Math.abs(end.getY() - start.getY()) + 1;
         this.dz = Math.abs(end.getZ() - start.getZ()) + 1;
-
-        this.world = world;
-        this.cache = new ExtendedBlockStorage[dx][dy][dz];
-        this.cubes = new Cube[dx][dy][dz];
-        this.columns = new Chunk[dx][dz];
         this.originX = Math.min(start.getX(), end.getX());
         this.originY = Math.min(start.getY(), end.getY());
         this.originZ = Math.min(start.getZ(), end.getZ());
 
+        int size = dx * dy * dz;
+        if (cubes.length < size) {
+            this.cache = new ExtendedBlockStorage[size];
+            this.cubes = new Cube[size];
+        }
+        if (columns.length < dx * dz) {
+            this.columns = new Chunk[dx * dz];
+        }
+
+        int index = 0;
         for (int relativeCubeX = 0; relativeCubeX < dx; relativeCubeX++) {
             for (int relativeCubeZ = 0; relativeCubeZ < dz; relativeCubeZ++) {
-                this.columns[relativeCubeX][relativeCubeZ] = prov.getLoadedColumn(originX + relativeCubeX, originZ + relativeCubeZ);
-                for (int relativeCubeY = 0; relativeCubeY < dy; relativeCubeY++) {
+                Chunk column = prov.getLoadedColumn(originX + relativeCubeX, originZ + relativeCubeZ);
+                this.columns[relativeCubeX * dz + relativeCubeZ] = column;
+                if (column == null) {
+                    // no cubes can be loaded without the column
+                    index += dy;
+                    continue;
+                }
+                for (int relativeCubeY = 0; relativeCubeY < dy; relativeCubeY++, index++) {
                     Cube cube = prov.getLoadedCube(originX + relativeCubeX, originY + relativeCubeY, originZ + relativeCubeZ);
                     if (cube != null) {
-                        ExtendedBlockStorage storage = cube.getStorage();
-                        this.cache[relativeCubeX][relativeCubeY][relativeCubeZ] = storage;
-                        this.cubes[relativeCubeX][relativeCubeY][relativeCubeZ] = cube;
-                        // markDirty ahead of time to avoid doing it on every setLight
-                        cube.markDirty();
+                        this.cache[index] = cube.getStorage();
+                        this.cubes[index] = cube;
                     }
                 }
             }
         }
+        return this;
     }
 
-    @Nullable
-    private ExtendedBlockStorage getStorage(int blockX, int blockY, int blockZ) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeY < originY || cubeZ < originZ)
-            return null;
-        cubeX -= originX;
-        cubeY -= originY;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeY >= dy || cubeZ >= dz)
-            return null;
-        return this.cache[cubeX][cubeY][cubeZ];
+    /**
+     * Removes all references to cubes and columns, so that this block access can be kept for later reuse without
+     * keeping unloaded cubes in memory.
+     */
+    public void clear() {
+        int size = dx * dy * dz;
+        Arrays.fill(cache, 0, size, null);
+        Arrays.fill(cubes, 0, size, null);
+        Arrays.fill(columns, 0, dx * dz, null);
+        this.dx = this.dy = this.dz = 0;
     }
 
-    private void setStorage(int blockX, int blockY, int blockZ, @Nullable ExtendedBlockStorage ebs) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
+    private int index(int blockX, int blockY, int blockZ) {
+        int cubeX = Coords.blockToCube(blockX) - originX;
+        int cubeY = Coords.blockToCube(blockY) - originY;
+        int cubeZ = Coords.blockToCube(blockZ) - originZ;
+        if (cubeX < 0 || cubeY < 0 || cubeZ < 0 || cubeX >= dx || cubeY >= dy || cubeZ >= dz) {
+            return -1;
+        }
+        return (cubeX * dz + cubeZ) * dy + cubeY;
+    }
 
-        this.cache[cubeX - originX][cubeY - originY][cubeZ - originZ] = ebs;
+    @Nullable
+    private ExtendedBlockStorage getStorage(int blockX, int blockY, int blockZ) {
+        int index = index(blockX, blockY, blockZ);
+        return index < 0 ? null : this.cache[index];
     }
 
     @Nullable
     private Cube getCube(int blockX, int blockY, int blockZ) {
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeY = Coords.blockToCube(blockY);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeY < originY || cubeZ < originZ)
-            return null;
-        cubeX -= originX;
-        cubeY -= originY;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeY >= dy || cubeZ >= dz)
-            return null;
-        return this.cubes[cubeX][cubeY][cubeZ];
+        int index = index(blockX, blockY, blockZ);
+        return index < 0 ? null : this.cubes[index];
     }
 
     private IBlockState getBlockState(BlockPos pos) {
@@ -172,23 +201,34 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
 
     @Override 
     public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+        int index = index(pos.getX(), pos.getY(), pos.getZ());
+        if (index < 0) {
+            return false;
+        }
+        ExtendedBlockStorage ebs = this.cache[index];
         if (ebs != null) {
             int localX = blockToLocal(pos.getX());
             int localY = blockToLocal(pos.getY());
             int localZ = blockToLocal(pos.getZ());
 
             if (lightType == EnumSkyBlock.SKY) {
+                if (ebs.getSkyLight(localX, localY, localZ) == val) {
+                    return true;
+                }
                 ebs.setSkyLight(localX, localY, localZ, val);
             } else {
+                if (ebs.getBlockLight(localX, localY, localZ) == val) {
+                    return true;
+                }
                 ebs.setBlockLight(localX, localY, localZ, val);
             }
+            this.cubes[index].markDirty();
             return true;
         }
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        Cube cube = this.cubes[index];
         if (cube != null) {
             cube.setLightFor(lightType, pos, val);
-            setStorage(pos.getX(), pos.getY(), pos.getZ(), cube.getStorage());
+            this.cache[index] = cube.getStorage();
             return true;
         }
         return false;
@@ -198,15 +238,11 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         int blockX = pos.getX();
         int blockY = pos.getY();
         int blockZ = pos.getZ();
-        int cubeX = Coords.blockToCube(blockX);
-        int cubeZ = Coords.blockToCube(blockZ);
-        if (cubeX < originX || cubeZ < originZ)
-            return false;
-        cubeX -= originX;
-        cubeZ -= originZ;
-        if (cubeX >= dx || cubeZ >= dz)
+        int cubeX = Coords.blockToCube(blockX) - originX;
+        int cubeZ = Coords.blockToCube(blockZ) - originZ;
+        if (cubeX < 0 || cubeZ < 0 || cubeX >= dx || cubeZ >= dz)
             return false;
-        Chunk column = columns[cubeX][cubeZ];
+        Chunk column = columns[cubeX * dz + cubeZ];
         if (column == null)
             return false;
         int height = ((IColumnInternal) column).getHeightWithStaging(blockToLocal(blockX), blockToLocal(blockZ));
@@ -228,8 +264,7 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         //TODO: fix it
         BlockPos midPos = Coords.midPos(startPos, endPos);
         Cube center = prov.getCube(CubePos.fromBlockCoords(midPos));
-        return new FastCubeBlockAccess(center.getWorld(), prov,
-                CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
+        return new FastCubeBlockAccess(center.getWorld()).init(prov, CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
     }
 
     @Override
@@ -29,6 +29,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.chunk.Chunk;
@@ -151,6 +152,15 @@ public class ClientHeightMap implements IHeightMap {
         }
     }
 
+    /**
+     * Reads data written by {@link ServerHeightMap#writeDataForClient(ByteBuf)}
+     */
+    public void setData(ByteBuf in) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            hmap.set(i, in.readInt());
+        }
+    }
+
     private static int getIndex(int localX, int localZ) {
         return (localZ << 4) | localX;
     }
@@ -24,7 +24,10 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.world;
 
+import com.google.common.base.Predicate;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
@@ -32,14 +35,19 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.ClassInheritanceMultiMap;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraftforge.common.util.Constants;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 //TODO: Have xcube review this class... I dont trust it
@@ -49,14 +57,42 @@ public class EntityContainer {
     @SuppressWarnings("unchecked")
     public static final ClassInheritanceMultiMap<Entity>[] EMPTY_ARR = new ClassInheritanceMultiMap[]{new BlankEntityContainer.BlankEntityMap()};
 
+    /**
+     * Amount of entities above which they are also indexed by position, so that AABB queries don't need to check every
+     * entity in the cube. Below half of it the index is dropped again.
+     */
+    private static final int INDEX_THRESHOLD = 32;
+    // 4x4x4 buckets of 4x4x4 blocks, entities are in the bucket containing the center of their bounding box
+    private static final int BUCKET_SHIFT = 2;
+    private static final int BUCKETS_PER_AXIS = 4;
+    // entities with bounding box that can extend outside of MAX_ENTITY_RADIUS from the center, always checked
+    private static final int OVERSIZED_BUCKET = BUCKETS_PER_AXIS * BUCKETS_PER_AXIS * BUCKETS_PER_AXIS;
+
     @Nonnull protected ClassInheritanceMultiMap<Entity> entities;
     protected boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
     protected long lastSaveTime;
 
+    private final int minBlockX;
+    private final int minBlockY;
+    private final int minBlockZ;
+    @Nullable private List<Entity>[] buckets;
+    @Nullable private Reference2IntOpenHashMap<Entity> entityBuckets;
+
     public EntityContainer() {
+        this(0, 0, 0);
+    }
+
+    public EntityContainer(CubePos pos) {
+        this(pos.getMinBlockX(), pos.getMinBlockY(), pos.getMinBlockZ());
+    }
+
+    private EntityContainer(int minBlockX, int minBlockY, int minBlockZ) {
         this.entities = new ClassInheritanceMultiMap<>(Entity.class);
         this.hasActiveEntities = false;
         this.lastSaveTime = 0;
+        this.minBlockX = minBlockX;
+        this.minBlockY = minBlockY;
+        this.minBlockZ = minBlockZ;
     }
 
     //=======================================
@@ -66,10 +102,51 @@ public class EntityContainer {
     public void addEntity(Entity entity) {
         this.entities.add(entity);
         this.hasActiveEntities = true;
+        ((IEntityInternal) entity).setCubeEntityContainer(this);
+        if (this.buckets != null) {
+            addToIndex(entity);
+        } else if (this.entities.size() > INDEX_THRESHOLD) {
+            buildIndex();
+        }
     }
 
     public boolean remove(Entity entity) {
-        return this.entities.remove(entity);
+        if (!this.entities.remove(entity)) {
+            return false;
+        }
+        if (((IEntityInternal) entity).getCubeEntityContainer() == this) {
+            ((IEntityInternal) entity).setCubeEntityContainer(null);
+        }
+        if (this.buckets != null) {
+            if (this.entities.size() < INDEX_THRESHOLD / 2) {
+                this.buckets = null;
+                this.entityBuckets = null;
+            } else {
+                removeFromIndex(entity);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when bounding box of an entity in this container changes
+     *
+     * @param entity the entity
+     */
+    public void onEntityMoved(Entity entity) {
+        if (this.buckets == null) {
+            return;
+        }
+        int oldBucket = this.entityBuckets.getInt(entity);
+        if (oldBucket < 0) {
+            return; // removed by clear()
+        }
+        int newBucket = getBucket(entity);
+        if (newBucket != oldBucket) {
+            this.buckets[oldBucket].remove(entity);
+            this.buckets[newBucket].add(entity);
+            this.entityBuckets.put(entity, newBucket);
+        }
     }
 
     public ClassInheritanceMultiMap<Entity> getEntitySet() {
@@ -78,6 +155,8 @@ public class EntityContainer {
 
     public void clear() {
         this.entities.clear();
+        this.buckets = null;
+        this.entityBuckets = null;
     }
 
     public Collection<Entity> getEntities() {
@@ -88,6 +167,161 @@ public class EntityContainer {
         return this.entities.size();
     }
 
+    /**
+     * Adds entities in this container with bounding box intersecting the given box to the list, together with their
+     * parts, the same way as {@link net.minecraft.world.chunk.Chunk#getEntitiesWithinAABBForEntity}.
+     *
+     * @param except entity that shouldn't be included
+     * @param aabb the bounding box
+     * @param listToFill the list to add the entities to
+     * @param filter entities not accepted by the filter are skipped
+     */
+    public void getEntitiesWithinAABBForEntity(@Nullable Entity except, AxisAlignedBB aabb, List<Entity> listToFill,
+            @Nullable Predicate<? super Entity> filter) {
+        if (this.entities.isEmpty()) {
+            return;
+        }
+        if (this.buckets == null) {
+            for (Entity entity : this.entities) {
+                addIfWithinAABB(entity, except, aabb, listToFill, filter);
+            }
+            return;
+        }
+        int minX = toBucket(aabb.minX - World.MAX_ENTITY_RADIUS - minBlockX);
+        int minY = toBucket(aabb.minY - World.MAX_ENTITY_RADIUS - minBlockY);
+        int minZ = toBucket(aabb.minZ - World.MAX_ENTITY_RADIUS - minBlockZ);
+        int maxX = toBucket(aabb.maxX + World.MAX_ENTITY_RADIUS - minBlockX);
+        int maxY = toBucket(aabb.maxY + World.MAX_ENTITY_RADIUS - minBlockY);
+        int maxZ = toBucket(aabb.maxZ + World.MAX_ENTITY_RADIUS - minBlockZ);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (Entity entity : this.buckets[getBucketIndex(x, y, z)]) {
+                        addIfWithinAABB(entity, except, aabb, listToFill, filter);
+                    }
+                }
+            }
+        }
+        for (Entity entity : this.buckets[OVERSIZED_BUCKET]) {
+            addIfWithinAABB(entity, except, aabb, listToFill, filter);
+        }
+    }
+
+    private static void addIfWithinAABB(Entity entity, @Nullable Entity except, AxisAlignedBB aabb, List<Entity> listToFill,
+            @Nullable Predicate<? super Entity> filter) {
+        if (!entity.getEntityBoundingBox().intersects(aabb) || entity == except) {
+            return;
+        }
+        if (filter == null || filter.apply(entity)) {
+            listToFill.add(entity);
+        }
+
+        Entity[] parts = entity.getParts();
+
+        if (parts != null) {
+            for (Entity part : parts) {
+                if (part != except && part.getEntityBoundingBox().intersects(aabb)
+                        && (filter == null || filter.apply(part))) {
+                    listToFill.add(part);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds entities of the given type in this container with bounding box intersecting the given box to the list, the
+     * same way as {@link net.minecraft.world.chunk.Chunk#getEntitiesOfTypeWithinAABB}.
+     *
+     * @param entityClass the entity type
+     * @param aabb the bounding box
+     * @param listToFill the list to add the entities to
+     * @param filter entities not accepted by the filter are skipped
+     * @param <T> the entity type
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Entity> void getEntitiesOfTypeWithinAABB(Class<? extends T> entityClass, AxisAlignedBB aabb, List<T> listToFill,
+            @Nullable Predicate<? super T> filter) {
+        if (this.buckets == null) {
+            for (T t : this.entities.getByClass(entityClass)) {
+                if (t.getEntityBoundingBox().intersects(aabb) && (filter == null || filter.apply(t))) {
+                    listToFill.add(t);
+                }
+            }
+            return;
+        }
+        int minX = toBucket(aabb.minX - World.MAX_ENTITY_RADIUS - minBlockX);
+        int minY = toBucket(aabb.minY - World.MAX_ENTITY_RADIUS - minBlockY);
+        int minZ = toBucket(aabb.minZ - World.MAX_ENTITY_RADIUS - minBlockZ);
+        int maxX = toBucket(aabb.maxX + World.MAX_ENTITY_RADIUS - minBlockX);
+        int maxY = toBucket(aabb.maxY + World.MAX_ENTITY_RADIUS - minBlockY);
+        int maxZ = toBucket(aabb.maxZ + World.MAX_ENTITY_RADIUS - minBlockZ);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (Entity entity : this.buckets[getBucketIndex(x, y, z)]) {
+                        if (entityClass.isInstance(entity) && entity.getEntityBoundingBox().intersects(aabb)
+                                && (filter == null || filter.apply((T) entity))) {
+                            listToFill.add((T) entity);
+                        }
+                    }
+                }
+            }
+        }
+        for (Entity entity : this.buckets[OVERSIZED_BUCKET]) {
+            if (entityClass.isInstance(entity) && entity.getEntityBoundingBox().intersects(aabb)
+                    && (filter == null || filter.apply((T) entity))) {
+                listToFill.add((T) entity);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void buildIndex() {
+        this.buckets = new List[OVERSIZED_BUCKET + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+        this.entityBuckets = new Reference2IntOpenHashMap<>();
+        this.entityBuckets.defaultReturnValue(-1);
+        for (Entity entity : this.entities) {
+            addToIndex(entity);
+        }
+    }
+
+    private void addToIndex(Entity entity) {
+        int bucket = getBucket(entity);
+        this.buckets[bucket].add(entity);
+        this.entityBuckets.put(entity, bucket);
+    }
+
+    private void removeFromIndex(Entity entity) {
+        int bucket = this.entityBuckets.removeInt(entity);
+        if (bucket >= 0) {
+            this.buckets[bucket].remove(entity);
+        }
+    }
+
+    private int getBucket(Entity entity) {
+        AxisAlignedBB bb = entity.getEntityBoundingBox();
+        double maxSize = World.MAX_ENTITY_RADIUS * 2;
+        if (bb.maxX - bb.minX > maxSize || bb.maxY - bb.minY > maxSize || bb.maxZ - bb.minZ > maxSize) {
+            return OVERSIZED_BUCKET;
+        }
+        // entities outside of the cube end up in the edge buckets, queries are clamped the same way so they are still found
+        return getBucketIndex(
+                toBucket((bb.minX + bb.maxX) * 0.5 - minBlockX),
+                toBucket((bb.minY + bb.maxY) * 0.5 - minBlockY),
+                toBucket((bb.minZ + bb.maxZ) * 0.5 - minBlockZ));
+    }
+
+    private static int toBucket(double localPos) {
+        return MathHelper.clamp(MathHelper.floor(localPos) >> BUCKET_SHIFT, 0, BUCKETS_PER_AXIS - 1);
+    }
+
+    private static int getBucketIndex(int x, int y, int z) {
+        return (x * BUCKETS_PER_AXIS + y) * BUCKETS_PER_AXIS + z;
+    }
+
 
     public boolean needsSaving(boolean flag, long time, boolean isModified) {
         if (flag) {
@@ -54,6 +54,29 @@ public interface ICubeProviderInternal extends ICubeProvider {
     @Override
     Cube getCube(CubePos coords);
 
+    /**
+     * Called when a tile entity position is queued for creation in the given cube, possibly from another thread
+     *
+     * @param cube the cube
+     */
+    default void onTileEntityQueued(Cube cube) {
+    }
+
+    /**
+     * Returns the cube used by World.getBlockState and World.setBlockState. Unlike {@link #getCube(int, int, int)}, this
+     * may avoid loading or generating the cube.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     *
+     * @return the cube, or null if it's not loaded and it shouldn't be loaded for block access
+     */
+    @Nullable
+    default Cube getCubeForBlockAccess(int cubeX, int cubeY, int cubeZ) {
+        return getCube(cubeX, cubeY, cubeZ);
+    }
+
     interface Server extends ICubeProviderInternal {
         ICubeIO getCubeIO();
     }
@@ -27,14 +27,36 @@ package io.github.opencubicchunks.cubicchunks.core.world;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
 
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import net.minecraft.util.BitArray;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.BitSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Heightmap made of a hierarchy of opacity masks.
+ * <p>
+ * For each x/z position, a node at scale 0 stores a 16-bit mask of opaque blocks in one cube. A node at scale n + 1
+ * stores a 16-bit mask of which of its 16 child nodes at scale n contain any opaque block at that x/z position. 8 scales
+ * cover the whole integer range, so finding the top block (below some height) takes at most 8 steps down and 8 steps up
+ * the hierarchy. Nodes without any opaque blocks aren't stored.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
 public class NewServerHeightMap implements IHeightMap {
 
     // 16 entries per level -> 4 bits per level -> 8 levels = 4 bytes
@@ -47,9 +69,26 @@ public class NewServerHeightMap implements IHeightMap {
     // scale 5 -> ... (24 bits)
     // scale 6 -> ... (28 bits)
     // scale 7 -> ... (32 bits)
+    private static final int SCALES = 8;
+
+    /**
+     * Shared node for cubes that are opaque everywhere, replaced with a copy when it's modified.
+     */
+    private static final short[] FULL_NODE = new short[ICube.SIZE * ICube.SIZE];
+
+    static {
+        Arrays.fill(FULL_NODE, (short) 0xFFFF);
+    }
 
+    /**
+     * Nodes at each scale, by y coordinate at that scale (cube y coordinate shifted right by 4 bits for each scale).
+     * Each node contains one mask for each x/z position.
+     */
     @SuppressWarnings("unchecked")
-    private Int2ObjectMap<HeightMap>[] heightmapsByScale = new Int2ObjectOpenHashMap[8];
+    private final Int2ObjectMap<short[]>[] heightmapsByScale = new Int2ObjectOpenHashMap[SCALES];
+
+    private int heightMapLowest;
+    private boolean heightMapLowestValid;
 
     public NewServerHeightMap() {
         for (int i = 0; i < heightmapsByScale.length; i++) {
@@ -57,43 +96,310 @@ public class NewServerHeightMap implements IHeightMap {
         }
     }
 
+    /**
+     * Sets the opacity of all blocks in the given cube at once, from the blocks in that cube.
+     */
     public void addCube(ICube cube) {
-
+        ExtendedBlockStorage ebs = cube.getStorage();
+        boolean empty = ebs == null || ebs.isEmpty();
+        for (int localX = 0; localX < ICube.SIZE; localX++) {
+            for (int localZ = 0; localZ < ICube.SIZE; localZ++) {
+                int opaqueMask = 0;
+                for (int localY = 0; !empty && localY < ICube.SIZE; localY++) {
+                    if (ebs.get(localX, localY, localZ).getLightOpacity() != 0) {
+                        opaqueMask |= 1 << localY;
+                    }
+                }
+                setMask(0, cube.getY(), getIndex(localX, localZ), opaqueMask);
+            }
+        }
+        compactNode(cube.getY());
     }
 
+    /**
+     * Called when the cube is unloaded. Opacity of the cube is kept, but since it can't change until the cube is loaded
+     * again, the node is replaced with a shared one if possible.
+     */
     public void unloadCube(ICube cube) {
+        compactNode(cube.getY());
+    }
 
+    private void compactNode(int cubeY) {
+        short[] node = heightmapsByScale[0].get(cubeY);
+        if (node != null && node != FULL_NODE && Arrays.equals(node, FULL_NODE)) {
+            heightmapsByScale[0].put(cubeY, FULL_NODE);
+        }
     }
 
     @Override public void onOpacityChange(int localX, int blockY, int localZ, int opacity) {
-        int cubeY = blockToCube(blockY);
-        if (opacity > 0) {
-            int localY = blockToLocal(blockY);
+        if (blockY > CubicChunks.MAX_SUPPORTED_BLOCK_Y || blockY < CubicChunks.MIN_SUPPORTED_BLOCK_Y) {
+            return;
         }
+        int cubeY = blockToCube(blockY);
+        int xzIndex = getIndex(localX, localZ);
+        int bit = 1 << blockToLocal(blockY);
+        int mask = getMask(0, cubeY, xzIndex);
+        setMask(0, cubeY, xzIndex, opacity != 0 ? mask | bit : mask & ~bit);
     }
 
     @Override public int getTopBlockY(int localX, int localZ) {
-        return 0;
+        int xzIndex = getIndex(localX, localZ);
+        // at the top scale, there are only 2 possible nodes: positive and negative y
+        int top = findTop(SCALES - 1, 0, xzIndex, ICube.SIZE);
+        if (top != Coords.NO_HEIGHT) {
+            return top;
+        }
+        return findTop(SCALES - 1, -1, xzIndex, ICube.SIZE);
     }
 
     @Override public int getTopBlockYBelow(int localX, int localZ, int blockY) {
-        return 0;
+        int xzIndex = getIndex(localX, localZ);
+        // go up the hierarchy, looking for opaque blocks below the path to blockY
+        int scaledY = blockToCube(blockY);
+        int limit = blockToLocal(blockY);
+        for (int scale = 0; scale < SCALES; scale++) {
+            int top = findTop(scale, scaledY, xzIndex, limit);
+            if (top != Coords.NO_HEIGHT) {
+                return top;
+            }
+            if (scale < SCALES - 1) {
+                limit = scaledY & 0xF;
+                scaledY >>= 4;
+            }
+        }
+        if (scaledY == 0) {
+            return findTop(SCALES - 1, -1, xzIndex, ICube.SIZE);
+        }
+        return Coords.NO_HEIGHT;
     }
 
     @Override public int getLowestTopBlockY() {
-        return 0;
+        if (!heightMapLowestValid) {
+            heightMapLowest = Integer.MAX_VALUE;
+            for (int localX = 0; localX < ICube.SIZE; localX++) {
+                for (int localZ = 0; localZ < ICube.SIZE; localZ++) {
+                    heightMapLowest = Math.min(heightMapLowest, getTopBlockY(localX, localZ));
+                }
+            }
+            heightMapLowestValid = true;
+        }
+        return heightMapLowest;
     }
 
-    private class HeightMap {
-        private final BitArray heights;
-        private final BitSet invalidatedPositions;
-        private final int scale, scaledY;
+    // Helper ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finds the highest opaque block in the given node, only considering child nodes (or blocks at scale 0) with
+     * index lower than limit.
+     */
+    private int findTop(int scale, int scaledY, int xzIndex, int limit) {
+        while (true) {
+            int mask = getMask(scale, scaledY, xzIndex) & ((1 << limit) - 1);
+            if (mask == 0) {
+                return Coords.NO_HEIGHT;
+            }
+            int highest = 31 - Integer.numberOfLeadingZeros(mask);
+            scaledY = scaledY << 4 | highest;
+            if (scale == 0) {
+                return scaledY;
+            }
+            scale--;
+            limit = ICube.SIZE;
+        }
+    }
+
+    private int getMask(int scale, int scaledY, int xzIndex) {
+        short[] node = heightmapsByScale[scale].get(scaledY);
+        return node == null ? 0 : node[xzIndex] & 0xFFFF;
+    }
+
+    private void setMask(int scale, int scaledY, int xzIndex, int mask) {
+        Int2ObjectMap<short[]> nodes = heightmapsByScale[scale];
+        short[] node = nodes.get(scaledY);
+        int oldMask = node == null ? 0 : node[xzIndex] & 0xFFFF;
+        if (oldMask == mask) {
+            return;
+        }
+        if (node == null) {
+            node = new short[ICube.SIZE * ICube.SIZE];
+            nodes.put(scaledY, node);
+        } else if (node == FULL_NODE) {
+            node = FULL_NODE.clone();
+            nodes.put(scaledY, node);
+        }
+        node[xzIndex] = (short) mask;
+        if (mask == 0 && isEmpty(node)) {
+            nodes.remove(scaledY);
+        }
+        heightMapLowestValid = false;
+
+        // the parent only needs to know whether there is anything in the child
+        if ((oldMask == 0) != (mask == 0) && scale < SCALES - 1) {
+            int parentY = scaledY >> 4;
+            int bit = 1 << (scaledY & 0xF);
+            int parentMask = getMask(scale + 1, parentY, xzIndex);
+            setMask(scale + 1, parentY, xzIndex, mask == 0 ? parentMask & ~bit : parentMask | bit);
+        }
+    }
+
+    private static boolean isEmpty(short[] node) {
+        for (short mask : node) {
+            if (mask != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getIndex(int localX, int localZ) {
+        return (localZ << 4) | localX;
+    }
+
+    // Serialization / NBT ---------------------------------------------------------------------------------------------
+
+    /*
+     * Only scale 0 nodes are stored, the others are rebuilt when reading. Format:
+     *  - varint: amount of nodes
+     *  - for each node, sorted by y:
+     *    - varint (zigzag): difference from y of the previous node
+     *    - byte: NODE_UNIFORM if all masks are the same, NODE_SPARSE if most masks are 0, otherwise NODE_MASKS
+     *    - NODE_UNIFORM: varint mask
+     *    - NODE_SPARSE: varint amount of non-zero masks, then for each of them a byte x/z index and a varint mask
+     *    - NODE_MASKS: 256 varint masks
+     * Most masks are 0 (air) or 0xFFFF (solid), so this is usually much smaller than the data of ServerHeightMap.
+     */
+    private static final int NODE_UNIFORM = 0;
+    private static final int NODE_MASKS = 1;
+    private static final int NODE_SPARSE = 2;
+
+    public byte[] getData() {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            writeData(out);
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException ex) {
+            throw new Error(ex);
+        }
+    }
+
+    public void readData(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            readData(in);
+            in.close();
+        } catch (IOException ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private void writeData(DataOutput out) throws IOException {
+        int[] cubeYs = heightmapsByScale[0].keySet().toIntArray();
+        Arrays.sort(cubeYs);
+        writeVarInt(out, cubeYs.length);
+        int prevY = 0;
+        for (int cubeY : cubeYs) {
+            writeVarInt(out, zigZag(cubeY - prevY));
+            prevY = cubeY;
+            short[] node = heightmapsByScale[0].get(cubeY);
+            if (isUniform(node)) {
+                out.writeByte(NODE_UNIFORM);
+                writeVarInt(out, node[0] & 0xFFFF);
+            } else if (countNonZero(node) < node.length / 2) {
+                out.writeByte(NODE_SPARSE);
+                writeVarInt(out, countNonZero(node));
+                for (int xzIndex = 0; xzIndex < node.length; xzIndex++) {
+                    if (node[xzIndex] != 0) {
+                        out.writeByte(xzIndex);
+                        writeVarInt(out, node[xzIndex] & 0xFFFF);
+                    }
+                }
+            } else {
+                out.writeByte(NODE_MASKS);
+                for (short mask : node) {
+                    writeVarInt(out, mask & 0xFFFF);
+                }
+            }
+        }
+    }
+
+    private void readData(DataInput in) throws IOException {
+        for (Int2ObjectMap<short[]> nodes : heightmapsByScale) {
+            nodes.clear();
+        }
+        heightMapLowestValid = false;
+        int count = readVarInt(in);
+        int cubeY = 0;
+        for (int i = 0; i < count; i++) {
+            cubeY += unZigZag(readVarInt(in));
+            int type = in.readUnsignedByte();
+            if (type == NODE_UNIFORM) {
+                int mask = readVarInt(in);
+                for (int xzIndex = 0; xzIndex < ICube.SIZE * ICube.SIZE; xzIndex++) {
+                    setMask(0, cubeY, xzIndex, mask);
+                }
+            } else if (type == NODE_SPARSE) {
+                int nonZero = readVarInt(in);
+                for (int j = 0; j < nonZero; j++) {
+                    int xzIndex = in.readUnsignedByte();
+                    setMask(0, cubeY, xzIndex, readVarInt(in));
+                }
+            } else if (type == NODE_MASKS) {
+                for (int xzIndex = 0; xzIndex < ICube.SIZE * ICube.SIZE; xzIndex++) {
+                    setMask(0, cubeY, xzIndex, readVarInt(in));
+                }
+            } else {
+                throw new IOException("Invalid heightmap node type " + type);
+            }
+            compactNode(cubeY);
+        }
+    }
+
+    private static int countNonZero(short[] node) {
+        int count = 0;
+        for (short mask : node) {
+            if (mask != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isUniform(short[] node) {
+        for (short mask : node) {
+            if (mask != node[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
 
-        private HeightMap(int scale, int scaledY) {
-            this.heights = new BitArray(5 + scale*4, ICube.SIZE * ICube.SIZE);
-            this.invalidatedPositions = new BitSet(ICube.SIZE * ICube.SIZE);
-            this.scale = scale;
-            this.scaledY = scaledY;
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
         }
+        throw new IOException("VarInt too big");
     }
 }
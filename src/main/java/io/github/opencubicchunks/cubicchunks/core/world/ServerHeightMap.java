@@ -28,6 +28,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 
 import java.io.ByteArrayInputStream;
@@ -35,6 +36,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -69,6 +71,17 @@ public class ServerHeightMap implements IHeightMap {
 
     private int heightMapLowest;
 
+    /**
+     * Incremented every time the top block of any block column changes, see {@link #getClientDataVersion()}
+     */
+    private int clientDataVersion;
+
+    /**
+     * Scratch array for {@link #setOpacityForCubeColumn(int, int, int, int)}, start and end of each opaque run
+     */
+    @Nonnull private int[] runs = new int[16];
+    private int runCount;
+
     public ServerHeightMap(int[] heightmap) {
         this.ymin = new int[Cube.SIZE * Cube.SIZE];
         this.ymax = new HeightMap(heightmap);
@@ -117,6 +130,7 @@ public class ServerHeightMap implements IHeightMap {
             return;
         }
         int xzIndex = getIndex(localX, localZ);
+        int oldTop = this.ymax.get(xzIndex);
 
         // try to stay in no-segments mode as long as we can, this is the simple case
         boolean isOpaque = opacity != 0;
@@ -125,8 +139,110 @@ public class ServerHeightMap implements IHeightMap {
         } else {
             this.setOpacityWithSegments(xzIndex, blockY, isOpaque);
         }
+        if (this.ymax.get(xzIndex) != oldTop) {
+            this.clientDataVersion++;
+        }
+
+        this.heightMapLowest = Coords.NO_HEIGHT;
+    }
+
+    /**
+     * Sets the opacity of the 16 blocks of one block column of a cube at once. This is equivalent to calling
+     * {@link #onOpacityChange(int, int, int, int)} for each of these blocks, but the segments are rebuilt once
+     * instead of being updated for every block.
+     *
+     * @param localX local block x-coordinate (0..15)
+     * @param localZ local block z-coordinate (0..15)
+     * @param minBlockY global y-coordinate of the lowest block
+     * @param opaqueMask bit i is set if the block at minBlockY + i is opaque
+     */
+    public void setOpacityForCubeColumn(int localX, int localZ, int minBlockY, int opaqueMask) {
+        int maxBlockY = minBlockY + Cube.SIZE - 1;
+        if (maxBlockY > CubicChunks.MAX_SUPPORTED_BLOCK_Y || minBlockY < CubicChunks.MIN_SUPPORTED_BLOCK_Y) {
+            for (int y = 0; y < Cube.SIZE; y++) {
+                onOpacityChange(localX, minBlockY + y, localZ, (opaqueMask >>> y) & 1);
+            }
+            return;
+        }
+        int xzIndex = getIndex(localX, localZ);
+        int ymin = this.ymin[xzIndex];
+        int ymax = this.ymax.get(xzIndex);
+        int[] segments = this.segments[xzIndex];
+        int lastSegment = segments == null ? 0 : getLastSegmentIndex(segments);
+
+        // the opaque runs of the block column, in ascending order: the old ones below the cube, the new ones in the
+        // cube, and the old ones above the cube
+        runCount = 0;
+        if (ymin != Coords.NO_HEIGHT) {
+            for (int i = 0; i <= lastSegment; i += 2) {
+                int start = segments == null ? ymin : segments[i];
+                int end = segments == null || i == lastSegment ? ymax : segments[i + 1] - 1;
+                if (start < minBlockY) {
+                    addRun(start, Math.min(end, minBlockY - 1));
+                }
+            }
+        }
+        for (int y = 0; y < Cube.SIZE; y++) {
+            if ((opaqueMask >>> y & 1) != 0) {
+                addRun(minBlockY + y, minBlockY + y);
+            }
+        }
+        if (ymin != Coords.NO_HEIGHT) {
+            for (int i = 0; i <= lastSegment; i += 2) {
+                int start = segments == null ? ymin : segments[i];
+                int end = segments == null || i == lastSegment ? ymax : segments[i + 1] - 1;
+                if (end > maxBlockY) {
+                    addRun(Math.max(start, maxBlockY + 1), end);
+                }
+            }
+        }
 
         this.heightMapLowest = Coords.NO_HEIGHT;
+        if ((runCount == 0 ? Coords.NO_HEIGHT : runs[runCount * 2 - 1]) != ymax) {
+            this.clientDataVersion++;
+        }
+        if (runCount == 0) {
+            this.ymin[xzIndex] = Coords.NO_HEIGHT;
+            this.ymax.set(xzIndex, Coords.NO_HEIGHT);
+            this.segments[xzIndex] = null;
+            return;
+        }
+        this.ymin[xzIndex] = runs[0];
+        this.ymax.set(xzIndex, runs[runCount * 2 - 1]);
+        if (runCount == 1) {
+            this.segments[xzIndex] = null;
+            return;
+        }
+        // opaque segment for each run, and transparent segment between each two runs
+        int segmentCount = runCount * 2 - 1;
+        if (segments == null || segments.length < segmentCount) {
+            segments = new int[segmentCount];
+            this.segments[xzIndex] = segments;
+        }
+        for (int i = 0; i < runCount; i++) {
+            segments[i * 2] = runs[i * 2];
+            if (i + 1 < runCount) {
+                segments[i * 2 + 1] = runs[i * 2 + 1] + 1;
+            }
+        }
+        for (int i = segmentCount; i < segments.length; i++) {
+            segments[i] = NONE_SEGMENT;
+        }
+        assert parityCheck(xzIndex) : "The number of segments was wrong!";
+    }
+
+    private void addRun(int start, int end) {
+        // merge with the previous run if there is no gap between them
+        if (runCount > 0 && runs[runCount * 2 - 1] == start - 1) {
+            runs[runCount * 2 - 1] = end;
+            return;
+        }
+        if (runs.length < (runCount + 1) * 2) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[runCount * 2] = start;
+        runs[runCount * 2 + 1] = end;
+        runCount++;
     }
 
     @Override
@@ -752,6 +868,23 @@ public class ServerHeightMap implements IHeightMap {
         }
     }
 
+    /**
+     * Returns a number that changes every time the data returned by {@link #getDataForClient()} changes, so that it
+     * doesn't need to be sent again to clients that already have it.
+     */
+    public int getClientDataVersion() {
+        return clientDataVersion;
+    }
+
+    /**
+     * Writes the same data as {@link #getDataForClient()} directly to the buffer
+     */
+    public void writeDataForClient(ByteBuf out) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            out.writeInt(ymax.get(i));
+        }
+    }
+
     public void readData(byte[] data) {
         try {
             ByteArrayInputStream buf = new ByteArrayInputStream(data);
@@ -764,6 +897,7 @@ public class ServerHeightMap implements IHeightMap {
     }
 
     private void readData(DataInputStream in) throws IOException {
+        this.clientDataVersion++;
         for (int i = 0; i < this.segments.length; i++) {
             this.ymin[i] = in.readInt();
             this.ymax.set(i, in.readInt());
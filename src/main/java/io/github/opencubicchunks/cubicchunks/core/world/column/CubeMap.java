@@ -50,8 +50,18 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class CubeMap implements Iterable<Cube> {
 
+    /**
+     * Maximum amount of cubes covered by {@link #cubesByY}. Cubes outside of that range are still found using binary search
+     * in {@link #cubes}, this only exists to avoid huge arrays when far apart cubes are loaded in the same column.
+     */
+    private static final int MAX_INDEX_SIZE = 1024;
+
     @Nonnull private final List<Cube> cubes = new ArrayList<>();
 
+    // direct index over a range of cube Y coordinates, cubesByY[cubeY - indexMinY]
+    @Nonnull private Cube[] cubesByY = new Cube[0];
+    private int indexMinY;
+
     @Nonnull private ExtendedBlockStorage[] toBlockTick = new ExtendedBlockStorage[0];
 
     /**
@@ -63,7 +73,32 @@ public class CubeMap implements Iterable<Cube> {
      */
     @Nullable public Cube remove(int cubeY) {
         int index = binarySearch(cubeY);
-        return index < cubes.size() && cubes.get(index).getY() == cubeY ? cubes.remove(index) : null;
+        if (!contains(cubeY, index)) {
+            return null;
+        }
+        if (isIndexed(cubeY)) {
+            cubesByY[cubeY - indexMinY] = null;
+        }
+        Cube removed = cubes.remove(index);
+        if (cubes.isEmpty()) {
+            cubesByY = new Cube[0];
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the cube at {@code cubeY}
+     *
+     * @param cubeY cube y position
+     *
+     * @return the cube if it's stored here, otherwise <code>null</code>
+     */
+    @Nullable public Cube get(int cubeY) {
+        if (isIndexed(cubeY)) {
+            return cubesByY[cubeY - indexMinY];
+        }
+        int index = binarySearch(cubeY);
+        return contains(cubeY, index) ? cubes.get(index) : null;
     }
 
     /**
@@ -77,6 +112,40 @@ public class CubeMap implements Iterable<Cube> {
             throw new IllegalArgumentException("Cube at " + cube.getY() + " already exists!");
         }
         cubes.add(searchIndex, cube);
+        addToIndex(cube);
+    }
+
+    private boolean isIndexed(int cubeY) {
+        return cubeY >= indexMinY && cubeY - indexMinY < cubesByY.length;
+    }
+
+    private void addToIndex(Cube cube) {
+        int cubeY = cube.getY();
+        if (isIndexed(cubeY)) {
+            cubesByY[cubeY - indexMinY] = cube;
+            return;
+        }
+        if (cubesByY.length == 0) {
+            cubesByY = new Cube[16];
+            indexMinY = cubeY - 8;
+            cubesByY[cubeY - indexMinY] = cube;
+            return;
+        }
+        int minY = Math.min(indexMinY, cubeY);
+        int maxY = Math.max(indexMinY + cubesByY.length - 1, cubeY);
+        if (maxY - minY >= MAX_INDEX_SIZE) {
+            return; // too far away, leave it to binary search
+        }
+        // grow at least twice the size in the direction of the new cube, so that loading a column cube by cube
+        // doesn't copy the array every time
+        int size = Math.min(MAX_INDEX_SIZE, Math.max(maxY - minY + 1, cubesByY.length * 2));
+        indexMinY = cubeY < indexMinY ? maxY - size + 1 : minY;
+        cubesByY = new Cube[size];
+        for (Cube c : cubes) {
+            if (isIndexed(c.getY())) {
+                cubesByY[c.getY() - indexMinY] = c;
+            }
+        }
     }
 
     /**
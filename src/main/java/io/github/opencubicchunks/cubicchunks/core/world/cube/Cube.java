@@ -39,11 +39,13 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.BlockStorageUtils;
 import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.TicketList;
 import io.github.opencubicchunks.cubicchunks.core.world.EntityContainer;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.ICubicTicketInternal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -198,7 +200,7 @@ public class Cube implements ICube {
 
         this.tickets = new TicketList(this);
 
-        this.entities = new EntityContainer();
+        this.entities = new EntityContainer(this.coords);
         this.tileEntityMap = new HashMap<>();
         this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
 
@@ -223,16 +225,25 @@ public class Cube implements ICube {
     public Cube(Chunk column, int cubeY, CubePrimer primer) {
         this(column, cubeY);
 
-        for (int y = Cube.SIZE - 1; y >= 0; y--) {
-            for (int z = 0; z < Cube.SIZE; z++) {
-                for (int x = 0; x < Cube.SIZE; x++) {
-                    IBlockState newstate = primer.getBlockState(x, y, z);
-
-                    if (newstate.getMaterial() != Material.AIR) {
-                        if (storage == NULL_STORAGE) {
-                            newStorage();
+        IBlockState uniformState = primer.getUniformBlockState();
+        if (uniformState != null) {
+            // common for cubes far below or above the surface, avoids looking up each block state separately
+            if (uniformState.getMaterial() != Material.AIR) {
+                newStorage();
+                BlockStorageUtils.fill(storage, uniformState);
+            }
+        } else {
+            for (int y = Cube.SIZE - 1; y >= 0; y--) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        IBlockState newstate = primer.getBlockState(x, y, z);
+
+                        if (newstate.getMaterial() != Material.AIR) {
+                            if (storage == NULL_STORAGE) {
+                                newStorage();
+                            }
+                            storage.set(x, y, z, newstate);
                         }
-                        storage.set(x, y, z, newstate);
                     }
                 }
             }
@@ -336,6 +347,15 @@ public class Cube implements ICube {
     @Override
     @Nullable
     public TileEntity getTileEntity(BlockPos pos, Chunk.EnumCreateEntityType createType) {
+        if (createType == Chunk.EnumCreateEntityType.QUEUED) {
+            // queue it in the cube instead of the column, only cubes are ticked
+            TileEntity tileEntity = column.getTileEntity(pos, Chunk.EnumCreateEntityType.CHECK);
+            if (tileEntity == null) {
+                this.tileEntityPosQueue.add(pos.toImmutable());
+                ((ICubicWorldInternal) world).getCubeCache().onTileEntityQueued(this);
+            }
+            return tileEntity;
+        }
         return column.getTileEntity(pos, createType);
     }
 
@@ -388,6 +408,13 @@ public class Cube implements ICube {
         }
     }
 
+    /**
+     * @return true if there are tile entities queued for creation in this cube
+     */
+    public boolean hasQueuedTileEntities() {
+        return !this.tileEntityPosQueue.isEmpty();
+    }
+
     /**
      * Tick this cube on server side. Block tick updates launched here.
      *
@@ -572,14 +599,28 @@ public class Cube implements ICube {
         IHeightMap opindex = ((IColumn) column).getOpacityIndex();
         int miny = getCoords().getMinBlockY();
 
-        for (int x = 0; x < Cube.SIZE; x++) {
-            for (int z = 0; z < Cube.SIZE; z++) {
-
-                for (int y = Cube.SIZE - 1; y >= 0; y--) {
-                    IBlockState newstate = this.getBlockState(x, y, z);
-
-                    column.setModified(true); //TODO: maybe ServerHeightMap needs its own isModified?
-                    opindex.onOpacityChange(x, miny + y, z, newstate.getLightOpacity());
+        column.setModified(true); //TODO: maybe ServerHeightMap needs its own isModified?
+        if (opindex instanceof ServerHeightMap) {
+            ServerHeightMap heightMap = (ServerHeightMap) opindex;
+            boolean empty = storage == null || storage.isEmpty();
+            for (int x = 0; x < Cube.SIZE; x++) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    int opaqueMask = 0;
+                    for (int y = 0; !empty && y < Cube.SIZE; y++) {
+                        if (this.getBlockState(x, y, z).getLightOpacity() != 0) {
+                            opaqueMask |= 1 << y;
+                        }
+                    }
+                    heightMap.setOpacityForCubeColumn(x, z, miny, opaqueMask);
+                }
+            }
+        } else {
+            for (int x = 0; x < Cube.SIZE; x++) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    for (int y = Cube.SIZE - 1; y >= 0; y--) {
+                        IBlockState newstate = this.getBlockState(x, y, z);
+                        opindex.onOpacityChange(x, miny + y, z, newstate.getLightOpacity());
+                    }
                 }
             }
         }
@@ -40,12 +40,14 @@ import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenHangWatchdog;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.generator.WorldGenUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.init.Biomes;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.biome.Biome;
@@ -83,13 +85,12 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
     @Nonnull private final IChunkGenerator vanilla;
     @Nonnull private final World world;
     /**
-     * Last chunk that was generated from the vanilla world gen
+     * Recently generated chunks from the vanilla world gen, most recently used first. Cubes aren't requested column by
+     * column, so the same chunk is often needed again a while after it has been generated.
      */
-    private Chunk lastChunk;
-    /**
-     * We generate all the chunks in the vanilla range at once. This variable prevents infinite recursion
-     */
-    private boolean optimizationHack;
+    private final Long2ObjectLinkedOpenHashMap<Chunk> chunkCache = new Long2ObjectLinkedOpenHashMap<>();
+    private long chunkCacheHits;
+    private long chunkCacheMisses;
     private Biome[] biomes;
     /**
      * Detected block for filling cubes below the world
@@ -120,14 +121,15 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         }
         isInit = true;
         // heuristics TODO: add a config that overrides this
-        lastChunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
+        Chunk chunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
+        cacheChunk(chunk);
 
         int worldHeightBlocks = ((ICubicWorld) world).getMaxGenerationHeight();
         worldHeightCubes = worldHeightBlocks / Cube.SIZE;
         Map<IBlockState, Integer> blockHistogramBottom = new HashMap<>();
         Map<IBlockState, Integer> blockHistogramTop = new HashMap<>();
 
-        ExtendedBlockStorage bottomEBS = lastChunk.getBlockStorageArray()[0];
+        ExtendedBlockStorage bottomEBS = chunk.getBlockStorageArray()[0];
         for (int x = 0; x < Cube.SIZE; x++) {
             for (int z = 0; z < Cube.SIZE; z++) {
                 // Scan three layers top / bottom each to guard against bedrock walls
@@ -141,7 +143,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 
                 for (int y = worldHeightBlocks - 1; y > worldHeightBlocks - 4; y--) {
                     int localY = Coords.blockToLocal(y);
-                    ExtendedBlockStorage ebs = lastChunk.getBlockStorageArray()[Coords.blockToCube(y)];
+                    ExtendedBlockStorage ebs = chunk.getBlockStorageArray()[Coords.blockToCube(y)];
 
                     IBlockState blockState = ebs == null ? Blocks.AIR.getDefaultState() : ebs.get(x, localY, z);
 
@@ -216,55 +218,40 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
             rand.setSeed(rand.nextInt() ^ cubeZ);
             if (cubeY < 0 || cubeY >= worldHeightCubes) {
                 // Fill with bottom block
-                for (int y = 0; y < Cube.SIZE; y++) {
-                    for (int z = 0; z < Cube.SIZE; z++) {
-                        for (int x = 0; x < Cube.SIZE; x++) {
-                            IBlockState state = cubeY < 0 ? extensionBlockBottom : extensionBlockTop;
-                            int blockY = Coords.localToBlock(cubeY, y);
-                            state = WorldGenUtils.getRandomBedrockReplacement(world, rand, state, blockY, 1,
-                                    hasTopBedrock, hasBottomBedrock);
-                            primer.setBlockState(x, y, z, state);
+                IBlockState fillState = cubeY < 0 ? extensionBlockBottom : extensionBlockTop;
+                primer.fill(fillState);
+                // bedrock can only be placed at the lowest and highest layer of the world
+                int minHeight = ((ICubicWorld) world).getMinHeight();
+                int maxHeight = ((ICubicWorld) world).getMaxHeight();
+                if (Coords.blockToCube(minHeight) == cubeY || Coords.blockToCube(maxHeight - 1) == cubeY) {
+                    for (int y = 0; y < Cube.SIZE; y++) {
+                        for (int z = 0; z < Cube.SIZE; z++) {
+                            for (int x = 0; x < Cube.SIZE; x++) {
+                                int blockY = Coords.localToBlock(cubeY, y);
+                                IBlockState state = WorldGenUtils.getRandomBedrockReplacement(world, rand, fillState, blockY, 1,
+                                        hasTopBedrock, hasBottomBedrock);
+                                if (state != fillState) {
+                                    primer.setBlockState(x, y, z, state);
+                                }
+                            }
                         }
                     }
                 }
             } else {
                 // Make vanilla generate a chunk for us to copy
-                if (lastChunk.x != cubeX || lastChunk.z != cubeZ) {
-                    if (CubicChunksConfig.optimizedCompatibilityGenerator) {
-                        try (ICubicWorldInternal.CompatGenerationScope ignored =
-                                     ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
-                            lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                            ChunkPrimer chunkPrimer = ((IColumnInternal) lastChunk).getCompatGenerationPrimer();
-                            replaceBedrock(chunkPrimer);
-                        }
-                    } else {
-                        lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                    }
-                }
-
-                if (!optimizationHack) {
-                    optimizationHack = true;
-                    // Recusrive generation
-                    for (int y = worldHeightCubes - 1; y >= 0; y--) {
-                        if (y == cubeY) {
-                            continue;
-                        }
-                        ((ICubicWorld) world).getCubeFromCubeCoords(cubeX, y, cubeZ);
-                    }
-                    optimizationHack = false;
-                }
+                Chunk chunk = getVanillaChunk(cubeX, cubeZ);
 
                 // Copy from vanilla, replacing bedrock as appropriate
-                ChunkPrimer chunkPrimer = ((IColumnInternal) lastChunk).getCompatGenerationPrimer();
+                ChunkPrimer chunkPrimer = ((IColumnInternal) chunk).getCompatGenerationPrimer();
                 if (chunkPrimer != null) {
                     return new CubePrimerWrapper(chunkPrimer, cubeY);
                 }
-                ExtendedBlockStorage storage = lastChunk.getBlockStorageArray()[cubeY];
+                ExtendedBlockStorage storage = chunk.getBlockStorageArray()[cubeY];
                 if (((ICubicWorld) world).getMaxHeight() == 16) {
                     if (cubeY != 0) {
                         storage = null;
                     } else {
-                        storage = lastChunk.getBlockStorageArray()[4];
+                        storage = chunk.getBlockStorageArray()[4];
                     }
                 }
                 if (storage != null && !storage.isEmpty()) {
@@ -299,6 +286,48 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         }
     }
 
+    private Chunk getVanillaChunk(int chunkX, int chunkZ) {
+        Chunk chunk = chunkCache.getAndMoveToFirst(ChunkPos.asLong(chunkX, chunkZ));
+        if (chunk != null) {
+            chunkCacheHits++;
+            return chunk;
+        }
+        chunkCacheMisses++;
+        if (CubicChunksConfig.optimizedCompatibilityGenerator) {
+            try (ICubicWorldInternal.CompatGenerationScope ignored =
+                         ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
+                chunk = vanilla.generateChunk(chunkX, chunkZ);
+                ChunkPrimer chunkPrimer = ((IColumnInternal) chunk).getCompatGenerationPrimer();
+                replaceBedrock(chunkPrimer);
+            }
+        } else {
+            chunk = vanilla.generateChunk(chunkX, chunkZ);
+        }
+        cacheChunk(chunk);
+        return chunk;
+    }
+
+    private void cacheChunk(Chunk chunk) {
+        chunkCache.putAndMoveToFirst(ChunkPos.asLong(chunk.x, chunk.z), chunk);
+        while (chunkCache.size() > Math.max(1, CubicChunksConfig.compatibilityGeneratorCacheSize)) {
+            chunkCache.removeLast();
+        }
+    }
+
+    /**
+     * @return how many times a cube was generated from an already generated vanilla chunk
+     */
+    public long getChunkCacheHits() {
+        return chunkCacheHits;
+    }
+
+    /**
+     * @return how many times a vanilla chunk had to be generated
+     */
+    public long getChunkCacheMisses() {
+        return chunkCacheMisses;
+    }
+
     private void replaceBedrock(ChunkPrimer chunkPrimer) {
         for (int y = 0; y < 8; y++) {
             replaceBedrockAtLayer(chunkPrimer, y);
@@ -0,0 +1,252 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestConcurrentXYZMap {
+
+    @Test
+    public void testPutGetRemove() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Entry a = new Entry(1, 2, 3);
+        Entry b = new Entry(-1, -2, -3);
+        assertNull(map.put(a));
+        assertNull(map.put(b));
+        assertEquals(2, map.getSize());
+        assertSame(a, map.get(1, 2, 3));
+        assertSame(b, map.get(-1, -2, -3));
+        assertNull(map.get(1, 2, 4));
+        assertTrue(map.contains(a));
+        assertFalse(map.contains(3, 2, 1));
+
+        Entry a2 = new Entry(1, 2, 3);
+        assertSame(a, map.put(a2));
+        assertEquals(2, map.getSize());
+        assertSame(a2, map.get(1, 2, 3));
+
+        assertSame(a2, map.remove(1, 2, 3));
+        assertNull(map.remove(1, 2, 3));
+        assertNull(map.get(1, 2, 3));
+        assertEquals(1, map.getSize());
+        assertSame(b, map.remove(b));
+        assertEquals(0, map.getSize());
+        assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void testAliasedKeys() {
+        // these coordinates pack to the keys reserved for empty slots and tombstones, and to the key used instead of them
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        List<Entry> entries = new ArrayList<>();
+        for (int y = 0; y < 3; y++) {
+            entries.add(new Entry(1 << 20, y, 0));
+            entries.add(new Entry(-(1 << 20), y, 0));
+        }
+        entries.forEach(map::put);
+        assertEquals(entries.size(), map.getSize());
+        for (Entry e : entries) {
+            assertSame(e, map.get(e.getX(), e.getY(), e.getZ()));
+        }
+        assertSame(entries.get(0), map.remove(entries.get(0)));
+        for (Entry e : entries.subList(1, entries.size())) {
+            assertSame(e, map.get(e.getX(), e.getY(), e.getZ()));
+        }
+    }
+
+    @Test
+    public void testRemovedSlotsReused() {
+        // without reusing removed slots and cleaning them up on rehash, the table would fill up with tombstones
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Entry fixed = new Entry(100, 100, 100);
+        map.put(fixed);
+        for (int i = 0; i < 100000; i++) {
+            Entry e = new Entry(i, -i, i * 31);
+            assertNull(map.put(e));
+            assertSame(e, map.get(i, -i, i * 31));
+            assertSame(e, map.remove(i, -i, i * 31));
+            if (i % 2 == 0) {
+                // same coordinates again, the tombstone can be reused directly
+                assertNull(map.put(e));
+                assertSame(e, map.remove(e));
+            }
+        }
+        assertEquals(1, map.getSize());
+        assertSame(fixed, map.get(100, 100, 100));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        for (int i = 0; i < 10; i++) {
+            map.put(new Entry(i, i, i));
+        }
+        List<Entry> order = new ArrayList<>();
+        map.forEach(order::add);
+
+        for (Iterator<Entry> it = map.iterator(); it.hasNext(); ) {
+            if (it.next().getX() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(5, map.getSize());
+        List<Entry> after = new ArrayList<>();
+        map.forEach(after::add);
+        // removing doesn't change the order of the other elements
+        order.removeIf(e -> e.getX() % 2 == 0);
+        assertEquals(order, after);
+    }
+
+    @Test
+    public void testRehashUnderLoad() {
+        Random rand = new Random(42);
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        Map<Long, Entry> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int x = rand.nextInt(64) - 32, y = rand.nextInt(64) - 32, z = rand.nextInt(64) - 32;
+            long key = pack(x, y, z);
+            if (rand.nextInt(3) == 0) {
+                assertSame(expected.remove(key), map.remove(x, y, z));
+            } else {
+                Entry e = new Entry(x, y, z);
+                assertSame(expected.put(key, e), map.put(e));
+            }
+            assertEquals(expected.size(), map.getSize());
+        }
+        for (Entry e : expected.values()) {
+            assertSame(e, map.get(e.getX(), e.getY(), e.getZ()));
+        }
+        Set<Entry> iterated = new HashSet<>();
+        for (Entry e : map) {
+            assertTrue(iterated.add(e));
+        }
+        assertEquals(new HashSet<>(expected.values()), iterated);
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentReads() throws InterruptedException {
+        ConcurrentXYZMap<Entry> map = new ConcurrentXYZMap<>(0.75f, 16);
+        // entries that stay in the map the whole time, readers must always find them
+        List<Entry> fixed = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Entry e = new Entry(i, 1000, -i);
+            fixed.add(e);
+            map.put(e);
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random rand = new Random(42);
+            for (int i = 0; i < 500000; i++) {
+                int x = rand.nextInt(128), y = rand.nextInt(128), z = rand.nextInt(128);
+                if (rand.nextBoolean()) {
+                    map.put(new Entry(x, y, z));
+                } else {
+                    map.remove(x, y, z);
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(new Thread(() -> {
+                Random rand = new Random();
+                try {
+                    while (writer.isAlive()) {
+                        for (Entry e : fixed) {
+                            assertSame(e, map.get(e.getX(), e.getY(), e.getZ()));
+                        }
+                        int x = rand.nextInt(128), y = rand.nextInt(128), z = rand.nextInt(128);
+                        Entry e = map.get(x, y, z);
+                        assertTrue(e == null || e.getX() == x && e.getY() == y && e.getZ() == z);
+                        for (Entry iterated : map) {
+                            assertTrue(iterated.getY() == 1000 || iterated.getY() < 128);
+                        }
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) x & 0xFFFF) << 32 | ((long) y & 0xFFFF) << 16 | (long) z & 0xFFFF;
+    }
+
+    private static final class Entry implements XYZAddressable {
+
+        private final int x, y, z;
+
+        Entry(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.world.NewServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestNewServerHeightMap {
+
+    @Test
+    public void testEmpty() {
+        NewServerHeightMap heightMap = new NewServerHeightMap();
+        assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(0, 0));
+        assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockYBelow(0, 0, 0));
+        assertEquals(Coords.NO_HEIGHT, heightMap.getLowestTopBlockY());
+    }
+
+    @Test
+    public void testTopBlockY() {
+        NewServerHeightMap heightMap = new NewServerHeightMap();
+        heightMap.onOpacityChange(3, -1000, 5, 255);
+        heightMap.onOpacityChange(3, -20, 5, 255);
+        heightMap.onOpacityChange(3, 64, 5, 255);
+        assertEquals(64, heightMap.getTopBlockY(3, 5));
+        assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(5, 3));
+        assertEquals(64, heightMap.getTopBlockYBelow(3, 5, 65));
+        assertEquals(-20, heightMap.getTopBlockYBelow(3, 5, 64));
+        assertEquals(-20, heightMap.getTopBlockYBelow(3, 5, 0));
+        assertEquals(-1000, heightMap.getTopBlockYBelow(3, 5, -20));
+        assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockYBelow(3, 5, -1000));
+
+        heightMap.onOpacityChange(3, 64, 5, 0);
+        assertEquals(-20, heightMap.getTopBlockY(3, 5));
+        heightMap.onOpacityChange(3, -20, 5, 0);
+        assertEquals(-1000, heightMap.getTopBlockY(3, 5));
+    }
+
+    @Test
+    public void testLowestTopBlockY() {
+        NewServerHeightMap heightMap = new NewServerHeightMap();
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                heightMap.onOpacityChange(localX, 10 + localX + localZ, localZ, 255);
+            }
+        }
+        assertEquals(10, heightMap.getLowestTopBlockY());
+        heightMap.onOpacityChange(0, -5, 0, 255);
+        assertEquals(10, heightMap.getLowestTopBlockY());
+        heightMap.onOpacityChange(0, 10, 0, 0);
+        assertEquals(-5, heightMap.getLowestTopBlockY());
+        heightMap.onOpacityChange(0, -5, 0, 0);
+        assertEquals(Coords.NO_HEIGHT, heightMap.getLowestTopBlockY());
+    }
+
+    /**
+     * Compares the heightmap with a simple set of opaque blocks after random changes, over small and whole integer
+     * y ranges, and after writing and reading the data.
+     */
+    @Test
+    public void testRandomChanges() {
+        Random rand = new Random(42);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            NewServerHeightMap heightMap = new NewServerHeightMap();
+            Model model = new Model();
+            long range = iteration % 2 == 0 ? 200 : Integer.MAX_VALUE - 4096;
+            List<Integer> changedY = new ArrayList<>();
+            for (int step = 0; step < 100; step++) {
+                int localX = rand.nextInt(16);
+                int localZ = rand.nextInt(16);
+                // mostly near blocks that were already changed, so that blocks are also removed again
+                int blockY = !changedY.isEmpty() && rand.nextBoolean()
+                        ? changedY.get(rand.nextInt(changedY.size())) + rand.nextInt(5) - 2
+                        : (int) ((rand.nextDouble() * 2 - 1) * range);
+                changedY.add(blockY);
+                int opacity = rand.nextInt(3) == 0 ? 0 : 255;
+                heightMap.onOpacityChange(localX, blockY, localZ, opacity);
+                model.set(localX, blockY, localZ, opacity != 0);
+
+                // only the changed block column can change, the others are checked from time to time
+                assertSameHeights(model, heightMap, changedY, localX, localZ);
+                if (step % 20 == 0) {
+                    assertSameHeights(model, heightMap, changedY);
+                }
+                if (rand.nextInt(10) == 0) {
+                    NewServerHeightMap copy = new NewServerHeightMap();
+                    copy.readData(heightMap.getData());
+                    assertSameHeights(model, copy, changedY);
+                    heightMap = copy;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDataRoundTrip() {
+        Random rand = new Random(42);
+        NewServerHeightMap heightMap = new NewServerHeightMap();
+        Model model = new Model();
+        List<Integer> changedY = new ArrayList<>();
+        // a full cube, an almost empty cube, a cube with random blocks, all at negative y, and a few single blocks
+        fillCube(heightMap, model, -3, 0xFFFF);
+        heightMap.onOpacityChange(7, -2 * 16 + 3, 9, 255);
+        model.set(7, -2 * 16 + 3, 9, true);
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localY = 0; localY < 16; localY++) {
+                    if (rand.nextBoolean()) {
+                        heightMap.onOpacityChange(localX, -16 + localY, localZ, 255);
+                        model.set(localX, -16 + localY, localZ, true);
+                    }
+                }
+            }
+        }
+        for (int blockY : new int[]{Integer.MIN_VALUE + 4096, -1, 0, 1000000, Integer.MAX_VALUE - 4096}) {
+            heightMap.onOpacityChange(1, blockY, 2, 255);
+            model.set(1, blockY, 2, true);
+            changedY.add(blockY);
+        }
+        for (int y = -64; y < 16; y++) {
+            changedY.add(y);
+        }
+
+        byte[] data = heightMap.getData();
+        NewServerHeightMap copy = new NewServerHeightMap();
+        copy.readData(data);
+        assertSameHeights(model, copy, changedY);
+        assertArrayEquals(data, copy.getData());
+    }
+
+    @Test
+    public void testFullNodeCopyOnWrite() {
+        NewServerHeightMap heightMap = new NewServerHeightMap();
+        Model model = new Model();
+        fillCube(heightMap, model, -1, 0xFFFF);
+        fillCube(heightMap, model, 4, 0xFFFF);
+        byte[] data = heightMap.getData();
+
+        // both read the fully opaque cubes into the same shared node
+        NewServerHeightMap first = new NewServerHeightMap();
+        first.readData(data);
+        NewServerHeightMap second = new NewServerHeightMap();
+        second.readData(data);
+
+        first.onOpacityChange(3, 4 * 16 + 15, 3, 0);
+        first.onOpacityChange(3, -1, 3, 0);
+        assertEquals(4 * 16 + 14, first.getTopBlockY(3, 3));
+        assertEquals(-2, first.getTopBlockYBelow(3, 3, 0));
+        // the other heightmaps, and cubes that weren't changed, must not be affected
+        for (NewServerHeightMap unchanged : new NewServerHeightMap[]{heightMap, second}) {
+            assertEquals(4 * 16 + 15, unchanged.getTopBlockY(3, 3));
+            assertEquals(-1, unchanged.getTopBlockYBelow(3, 3, 0));
+        }
+        assertEquals(4 * 16 + 15, first.getTopBlockY(4, 3));
+        assertArrayEquals(data, second.getData());
+
+        NewServerHeightMap third = new NewServerHeightMap();
+        third.readData(data);
+        assertEquals(4 * 16 + 15, third.getTopBlockY(3, 3));
+    }
+
+    private static void fillCube(NewServerHeightMap heightMap, Model model, int cubeY, int opaqueMask) {
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localY = 0; localY < 16; localY++) {
+                    boolean opaque = (opaqueMask >>> localY & 1) != 0;
+                    heightMap.onOpacityChange(localX, cubeY * 16 + localY, localZ, opaque ? 255 : 0);
+                    model.set(localX, cubeY * 16 + localY, localZ, opaque);
+                }
+            }
+        }
+    }
+
+    private static void assertSameHeights(Model model, NewServerHeightMap heightMap, List<Integer> testedY) {
+        int lowest = Integer.MAX_VALUE;
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                assertSameHeights(model, heightMap, testedY, localX, localZ);
+                lowest = Math.min(lowest, model.getTopBlockY(localX, localZ));
+            }
+        }
+        assertEquals(lowest, heightMap.getLowestTopBlockY());
+    }
+
+    private static void assertSameHeights(Model model, NewServerHeightMap heightMap, List<Integer> testedY, int localX, int localZ) {
+        assertEquals("top at " + localX + ", " + localZ, model.getTopBlockY(localX, localZ), heightMap.getTopBlockY(localX, localZ));
+        // just below, at and just above each tested y
+        for (int y : testedY) {
+            for (int blockY = y - 1; blockY <= y + 1; blockY++) {
+                int expected = model.getTopBlockYBelow(localX, localZ, blockY);
+                int actual = heightMap.getTopBlockYBelow(localX, localZ, blockY);
+                // not using assertEquals, building the message every time makes the test much slower
+                if (expected != actual) {
+                    fail("below " + blockY + " at " + localX + ", " + localZ + ": expected " + expected + " but was " + actual);
+                }
+            }
+        }
+    }
+
+    private static final class Model {
+
+        @SuppressWarnings("unchecked")
+        private final NavigableSet<Integer>[] opaque = new NavigableSet[256];
+
+        Model() {
+            for (int i = 0; i < opaque.length; i++) {
+                opaque[i] = new TreeSet<>();
+            }
+        }
+
+        void set(int localX, int blockY, int localZ, boolean isOpaque) {
+            if (isOpaque) {
+                opaque[localZ << 4 | localX].add(blockY);
+            } else {
+                opaque[localZ << 4 | localX].remove(blockY);
+            }
+        }
+
+        int getTopBlockY(int localX, int localZ) {
+            NavigableSet<Integer> column = opaque[localZ << 4 | localX];
+            return column.isEmpty() ? Coords.NO_HEIGHT : column.last();
+        }
+
+        int getTopBlockYBelow(int localX, int localZ, int blockY) {
+            Integer below = opaque[localZ << 4 | localX].lower(blockY);
+            return below == null ? Coords.NO_HEIGHT : below;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestServerHeightMap {
+
+    /**
+     * Updating a whole cube block column at once must give the same heightmap as updating each block separately.
+     */
+    @Test
+    public void testSetOpacityForCubeColumnSameAsPerBlock() {
+        Random rand = new Random(42);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            ServerHeightMap perBlock = new ServerHeightMap(new int[256]);
+            ServerHeightMap perColumn = new ServerHeightMap(new int[256]);
+            for (int step = 0; step < 40; step++) {
+                int localX = rand.nextInt(16);
+                int localZ = rand.nextInt(16);
+                if (rand.nextBoolean()) {
+                    // single block changes in between, so that the column updates start from all kinds of segments
+                    int blockY = rand.nextInt(200) - 100;
+                    int opacity = rand.nextInt(3) == 0 ? 255 : 0;
+                    perBlock.onOpacityChange(localX, blockY, localZ, opacity);
+                    perColumn.onOpacityChange(localX, blockY, localZ, opacity);
+                } else {
+                    int minBlockY = (rand.nextInt(12) - 6) * 16;
+                    int opaqueMask;
+                    switch (rand.nextInt(4)) {
+                        case 0:
+                            opaqueMask = 0;
+                            break;
+                        case 1:
+                            opaqueMask = 0xFFFF;
+                            break;
+                        default:
+                            opaqueMask = rand.nextInt(0x10000);
+                    }
+                    for (int y = 0; y < 16; y++) {
+                        perBlock.onOpacityChange(localX, minBlockY + y, localZ, (opaqueMask >>> y) & 1);
+                    }
+                    perColumn.setOpacityForCubeColumn(localX, localZ, minBlockY, opaqueMask);
+                }
+                // only the updated block column can change
+                assertSameHeights(perBlock, perColumn, localX, localZ);
+                assertEquals(perBlock.getLowestTopBlockY(), perColumn.getLowestTopBlockY());
+            }
+        }
+    }
+
+    private static void assertSameHeights(ServerHeightMap expected, ServerHeightMap actual, int localX, int localZ) {
+        String message = "at " + localX + ", " + localZ + ": " + expected.dump(localX, localZ) + " vs " + actual.dump(localX, localZ);
+        assertEquals(message, expected.getTopBlockY(localX, localZ), actual.getTopBlockY(localX, localZ));
+        for (int blockY = -110; blockY < 110; blockY++) {
+            assertEquals(message + ", below " + blockY,
+                    expected.getTopBlockYBelow(localX, localZ, blockY), actual.getTopBlockYBelow(localX, localZ, blockY));
+        }
+    }
+}